@@ -28,8 +28,16 @@ import edu.brown.cs.ivy.xml.IvyXml;
 
 import org.w3c.dom.Element;
 
-import java.util.LinkedHashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 import java.util.TreeMap;
 
 
@@ -52,6 +60,9 @@ private BicexValue [] array_values;
 private boolean can_initialize;
 private boolean is_component;
 private String full_name;
+private BicexValueSource value_source;
+private int deferred_size;
+private boolean sources_detached;
 
 
 
@@ -65,39 +76,22 @@ private String full_name;
 BicexBaseValue(Element xml,Map<String,BicexBaseValue> knownvalues,Map<String,BicexBaseValue> prevvalues,
       String name)
 {
-   value_type = IvyXml.getAttrString(xml,"TYPE");
-   value_text = null;
-   sub_values = null;
-   array_values = null;
-   can_initialize = IvyXml.getAttrBool(xml,"CANINIT");
-   is_component = IvyXml.getAttrBool(xml,"COMPONENT");
-   full_name = IvyXml.getAttrString(xml,"NAME");
-   if (full_name == null) full_name = name;
+   this(IvyXml.getAttrString(xml,"TYPE"),IvyXml.getAttrString(xml,"NAME"),name,
+	 IvyXml.getAttrBool(xml,"CANINIT"),IvyXml.getAttrBool(xml,"COMPONENT"));
 
    if (IvyXml.getAttrBool(xml,"NULL")) {
-      value_text = "null";
+      setupNull();
     }
    else if (IvyXml.getAttrBool(xml,"OBJECT")) {
-      String id = IvyXml.getAttrString(xml,"ID");
-      if (id != null) knownvalues.put(id,this);
-      sub_values = new TreeMap<>();
+      setupObject(IvyXml.getAttrString(xml,"ID"),knownvalues);
       for (Element fld : IvyXml.children(xml,"FIELD")) {
 	 String nm = IvyXml.getAttrString(fld,"NAME");
-	 int idx = nm.lastIndexOf(".");
-	 if (idx > 0) nm = nm.substring(idx+1);
 	 BicexValue cv = BicexValue.createRefValue(fld,knownvalues,prevvalues);
-	 if (cv != null) {
-	    sub_values.put(nm,cv);
-	  }
+	 addField(nm,cv);
        }
-      value_text = value_type + " (" + id + ")";
     }
    else if (IvyXml.getAttrBool(xml,"ARRAY")) {
-      String id = IvyXml.getAttrString(xml,"ID");
-      if (id != null) knownvalues.put(id,this);
-      int dim = IvyXml.getAttrInt(xml,"SIZE");
-      if (dim < 0) dim = 0;
-      array_values = new BicexValue[dim];
+      setupArray(IvyXml.getAttrString(xml,"ID"),IvyXml.getAttrInt(xml,"SIZE"),knownvalues);
       BicexValue dflt = null;
       for (Element aelt : IvyXml.children(xml,"ELEMENT")) {
 	 if (IvyXml.getAttrBool(aelt,"DEFAULT")) {
@@ -107,36 +101,32 @@ BicexBaseValue(Element xml,Map<String,BicexBaseValue> knownvalues,Map<String,Bic
 	  }
 	 int idx = IvyXml.getAttrInt(aelt,"INDEX");
 	 BicexValue cv = BicexValue.createRefValue(aelt,knownvalues,prevvalues);
-	 if (cv != null) {
-	    array_values[idx] = cv;
-	  }
+	 setElement(idx,cv);
        }
-      if (dflt != null) {
-	 for (int i = 0; i < dim; ++i) {
-	    if (array_values[i] == null) {
-	       array_values[i] = dflt;
-	     }
-	  }
-       }
-      value_text = value_type + "[" + dim + "]";
-      if (id != null) value_text += " (" + id + ")";
-    }
-   else if (value_type.equals("boolean")) {
-      value_text = IvyXml.getText(xml);
-      if (value_text == null || value_text.equals("0")) value_text = "false";
-      else value_text = "true";
-    }
-   else if (IvyXml.getAttrBool(xml,"CHARS")) {
-      int len = IvyXml.getAttrInt(xml,"LENGTH");
-      String text = IvyXml.getText(xml);
-      value_text = IvyXml.decodeCharacters(text,len);
+      finishArray(dflt);
     }
    else {
-      value_text = IvyXml.getText(xml);
+      setupText(IvyXml.getText(xml),IvyXml.getAttrBool(xml,"CHARS"),IvyXml.getAttrInt(xml,"LENGTH"));
     }
 }
 
 
+BicexBaseValue(String type,String fullname,String name,boolean caninit,boolean component)
+{
+   value_type = type;
+   value_text = null;
+   sub_values = null;
+   array_values = null;
+   can_initialize = caninit;
+   is_component = component;
+   full_name = fullname;
+   if (full_name == null) full_name = name;
+   value_source = null;
+   deferred_size = -1;
+   sources_detached = false;
+}
+
+
 BicexBaseValue(String s)
 {
    value_type = "java.lang.String";
@@ -145,6 +135,192 @@ BicexBaseValue(String s)
    array_values = null;
    can_initialize = false;
    is_component = false;
+   value_source = null;
+   deferred_size = -1;
+   sources_detached = false;
+}
+
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Setup methods (shared by the DOM and streaming decoders)		*/
+/*										*/
+/********************************************************************************/
+
+void setupNull()
+{
+   value_text = "null";
+}
+
+
+void setupObject(String id,Map<String,BicexBaseValue> knownvalues)
+{
+   if (id != null) knownvalues.put(id,this);
+   sub_values = new TreeMap<>();
+   value_text = value_type + " (" + id + ")";
+}
+
+
+/**
+ *	Setup an object whose fields are decoded from the given source the
+ *	first time they are needed.
+ **/
+
+void setupDeferredObject(String id,Map<String,BicexBaseValue> knownvalues,BicexValueSource src)
+{
+   if (id != null) knownvalues.put(id,this);
+   value_text = value_type + " (" + id + ")";
+   value_source = src;
+   deferred_size = -1;
+}
+
+
+void addField(String nm,BicexValue cv)
+{
+   if (cv == null) return;
+
+   int idx = nm.lastIndexOf(".");
+   if (idx > 0) nm = nm.substring(idx+1);
+   sub_values.put(nm,cv);
+}
+
+
+void setupArray(String id,int dim,Map<String,BicexBaseValue> knownvalues)
+{
+   if (id != null) knownvalues.put(id,this);
+   if (dim < 0) dim = 0;
+   array_values = new BicexValue[dim];
+   value_text = value_type + "[" + dim + "]";
+   if (id != null) value_text += " (" + id + ")";
+}
+
+
+void setupDeferredArray(String id,int dim,Map<String,BicexBaseValue> knownvalues,
+      BicexValueSource src)
+{
+   if (id != null) knownvalues.put(id,this);
+   if (dim < 0) dim = 0;
+   value_text = value_type + "[" + dim + "]";
+   if (id != null) value_text += " (" + id + ")";
+   value_source = src;
+   deferred_size = dim;
+}
+
+
+void setElement(int idx,BicexValue cv)
+{
+   if (cv != null) array_values[idx] = cv;
+}
+
+
+void finishArray(BicexValue dflt)
+{
+   if (dflt == null) return;
+
+   for (int i = 0; i < array_values.length; ++i) {
+      if (array_values[i] == null) {
+	 array_values[i] = dflt;
+       }
+    }
+}
+
+
+void setupText(String text,boolean chars,int len)
+{
+   if (value_type.equals("boolean")) {
+      value_text = text;
+      if (value_text == null || value_text.equals("0")) value_text = "false";
+      else value_text = "true";
+    }
+   else if (chars) {
+      value_text = IvyXml.decodeCharacters(text,len);
+    }
+   else {
+      value_text = text;
+    }
+}
+
+
+
+
+boolean isArrayValue()
+{
+   return array_values != null || (value_source != null && deferred_size >= 0);
+}
+
+
+boolean isDeferred()
+{
+   return value_source != null;
+}
+
+
+private synchronized void materialize()
+{
+   if (value_source == null) return;
+
+   BicexValueSource src = value_source;
+   value_source = null;
+   if (deferred_size >= 0) array_values = new BicexValue[deferred_size];
+   else sub_values = new TreeMap<>();
+
+   src.decodeValue(this);
+}
+
+
+
+/**
+ *	Make values that are kept beyond their result, and everything they
+ *	refer to, independent of the messages they came from.  Each value is
+ *	only handled once, so this is cheap for values kept before.
+ **/
+
+static void detachSources(Collection<? extends BicexValue> vals)
+{
+   Deque<BicexValue> work = new ArrayDeque<>(vals);
+   while (!work.isEmpty()) {
+      work.remove().detachValue(work);
+    }
+}
+
+
+
+@Override synchronized void detachValue(Collection<BicexValue> work)
+{
+   if (sources_detached) return;
+   sources_detached = true;
+
+   if (value_source != null) {
+      value_source.detach();
+      work.addAll(value_source.getReferences().values());
+    }
+   else if (array_values != null) {
+      for (BicexValue cv : array_values) {
+	 if (cv != null) work.add(cv);
+       }
+    }
+   else if (sub_values != null) {
+      work.addAll(sub_values.values());
+    }
+}
+
+
+
+/**
+ *	Return a rough estimate of the bytes held by this value itself,
+ *	not counting values it refers to.
+ **/
+
+synchronized long getEstimatedSize()
+{
+   long sz = 64;
+   if (value_text != null) sz += 40 + 2*value_text.length();
+   if (array_values != null) sz += 16 + 8*array_values.length;
+   else if (sub_values != null) sz += 48 + 40*sub_values.size();
+   if (value_source != null) sz += value_source.getSize();
+   return sz;
 }
 
 
@@ -158,27 +334,40 @@ BicexBaseValue(String s)
 
 @Override boolean hasChildren(long when)
 {
-   if (sub_values != null || array_values != null) return true;
+   if (sub_values != null || array_values != null || value_source != null) return true;
    return false;
 }
 
 
 @Override Map<String,BicexValue> getChildren(long when)
 {
+   materialize();
+
    if (sub_values == null && array_values != null) {
-      new LinkedHashMap<String,BicexValue>();
-      Map<String,BicexValue> rslt = new LinkedHashMap<>();
-      for (int i = 0; i < array_values.length; ++i) {
-	 if (array_values[i] != null) {
-	    rslt.put("[" + i + "]",array_values[i]);
-	  }
-       }
-      sub_values = rslt;
+      sub_values = new ArrayChildMap(array_values);
     }
 
    return sub_values;
 }
 
+
+@Override int getArraySize(long when)
+{
+   materialize();
+
+   if (array_values == null) return -1;
+   return array_values.length;
+}
+
+
+@Override BicexValue getArrayElement(long when,int idx)
+{
+   materialize();
+
+   if (array_values == null || idx < 0 || idx >= array_values.length) return null;
+   return array_values[idx];
+}
+
 @Override String getStringValue(long when)
 {
    switch (value_type) {
@@ -191,6 +380,7 @@ BicexBaseValue(String s)
 	 break;
       case "java.lang.StringBuilder" :
       case "java.lang.StringBuffer" :
+	 materialize();
 	 try {
 	    BicexValue bv1 = sub_values.get("count");
 	    if (bv1 == null) return "";
@@ -200,17 +390,11 @@ BicexBaseValue(String s)
 	    if (ct == 0) return "";
 	    BicexValue bv2 = sub_values.get("value");
 	    if (bv2 == null) return "";
-	    StringBuilder bldr = new StringBuilder();
-	    Map<String,BicexValue> chars = bv2.getChildren(when);
-	    if (chars == null) return "";
+	    ct = Math.min(ct,bv2.getArraySize(when));
+	    if (ct <= 0) return "";
+	    StringBuilder bldr = new StringBuilder(ct);
 	    for (int i = 0; i < ct; ++i) {
-	       String sv = chars.get("[" + i + "]").getStringValue(when);
-	       int idx = sv.lastIndexOf("'");
-	       if (idx > 0) {
-		  sv = sv.substring(idx+2);
-	       }
-	       int ch = Integer.parseInt(sv);
-	       bldr.append((char) ch);
+	       bldr.append((char) getCharCode(bv2.getArrayElement(when,i),when));
 	     }
 	    return bldr.toString();
 	  }
@@ -221,6 +405,22 @@ BicexBaseValue(String s)
    return value_text;
 }
 
+private static int getCharCode(BicexValue v,long when)
+{
+   if (v instanceof BicexRefValue) v = ((BicexRefValue) v).getValueAt(when);
+   if (v == null) return 0;
+
+   String sv;
+   if (v instanceof BicexBaseValue) sv = ((BicexBaseValue) v).value_text;
+   else sv = v.getStringValue(when);
+   if (sv == null) return 0;
+   int idx = sv.lastIndexOf("'");
+   if (idx > 0) sv = sv.substring(idx+2);
+
+   return Integer.parseInt(sv);
+}
+
+
 @Override String getDataType(long when)
 {
    return value_type;
@@ -273,6 +473,160 @@ BicexBaseValue(String s)
 
 
 
+/********************************************************************************/
+/*										*/
+/*	Comparison methods							*/
+/*										*/
+/********************************************************************************/
+
+@Override boolean sameValue(BicexValue v,Map<BicexValue,BicexValue> done)
+{
+   if (v == this) return true;
+   if (!(v instanceof BicexBaseValue)) return false;
+   BicexBaseValue bv = (BicexBaseValue) v;
+   if (done.get(this) == bv) return true;
+
+   if (!Objects.equals(value_type,bv.value_type)) return false;
+   if (!Objects.equals(value_text,bv.value_text)) return false;
+   if (can_initialize != bv.can_initialize || is_component != bv.is_component) return false;
+
+   done.put(this,bv);
+
+   if (value_source != null || bv.value_source != null) {
+      if (value_source != null && bv.value_source != null &&
+	    value_source.sameSource(bv.value_source)) {
+	 // same text, but the objects it refers to by ID may have changed
+	 return sameReferences(value_source,bv.value_source,done);
+       }
+      materialize();
+      bv.materialize();
+    }
+
+   if (array_values != null || bv.array_values != null) {
+      if (array_values == null || bv.array_values == null) return false;
+      if (array_values.length != bv.array_values.length) return false;
+      for (int i = 0; i < array_values.length; ++i) {
+	 if (array_values[i] == null) {
+	    if (bv.array_values[i] != null) return false;
+	  }
+	 else if (!array_values[i].sameValue(bv.array_values[i],done)) return false;
+       }
+    }
+   else if (sub_values != null || bv.sub_values != null) {
+      if (sub_values == null || bv.sub_values == null) return false;
+      if (sub_values.size() != bv.sub_values.size()) return false;
+      for (Map.Entry<String,BicexValue> ent : sub_values.entrySet()) {
+	 BicexValue ov = bv.sub_values.get(ent.getKey());
+	 if (ov == null || !ent.getValue().sameValue(ov,done)) return false;
+       }
+    }
+
+   return true;
+}
+
+
+
+private static boolean sameReferences(BicexValueSource s1,BicexValueSource s2,
+      Map<BicexValue,BicexValue> done)
+{
+   Map<String,BicexBaseValue> r1 = s1.getReferences();
+   Map<String,BicexBaseValue> r2 = s2.getReferences();
+   if (r1.size() != r2.size()) return false;
+   for (Map.Entry<String,BicexBaseValue> ent : r1.entrySet()) {
+      BicexBaseValue ov = r2.get(ent.getKey());
+      if (ov == null || !ent.getValue().sameValue(ov,done)) return false;
+    }
+
+   return true;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Map view of array elements						*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Children of an array as a map from "[i]" to the element.  Lookups
+ *	parse the key and index the array directly; keys are only created
+ *	when the map is iterated.
+ **/
+
+private static class ArrayChildMap extends AbstractMap<String,BicexValue> {
+
+   private BicexValue [] array_values;
+   private int element_count;
+
+   ArrayChildMap(BicexValue [] vals) {
+      array_values = vals;
+      element_count = 0;
+      for (BicexValue v : vals) {
+	 if (v != null) ++element_count;
+       }
+    }
+
+   @Override public int size()			{ return element_count; }
+
+   @Override public BicexValue get(Object key) {
+      int idx = getIndex(key);
+      if (idx < 0 || idx >= array_values.length) return null;
+      return array_values[idx];
+    }
+
+   @Override public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+   @Override public Set<Map.Entry<String,BicexValue>> entrySet() {
+      return new AbstractSet<Map.Entry<String,BicexValue>>() {
+	 @Override public int size()		{ return element_count; }
+	 @Override public Iterator<Map.Entry<String,BicexValue>> iterator() {
+	    return new ElementIterator();
+	  }
+       };
+    }
+
+   private int getIndex(Object key) {
+      if (!(key instanceof String)) return -1;
+      String k = (String) key;
+      if (k.length() < 3 || k.charAt(0) != '[' || k.charAt(k.length()-1) != ']') return -1;
+      try {
+	 return Integer.parseInt(k.substring(1,k.length()-1));
+       }
+      catch (NumberFormatException e) { }
+      return -1;
+    }
+
+   private class ElementIterator implements Iterator<Map.Entry<String,BicexValue>> {
+
+      private int next_index;
+
+      ElementIterator() {
+	 next_index = findNext(0);
+       }
+
+      @Override public boolean hasNext()	{ return next_index < array_values.length; }
+
+      @Override public Map.Entry<String,BicexValue> next() {
+	 if (!hasNext()) throw new NoSuchElementException();
+	 int idx = next_index;
+	 next_index = findNext(idx+1);
+	 return new AbstractMap.SimpleImmutableEntry<>("[" + idx + "]",array_values[idx]);
+       }
+
+      private int findNext(int idx) {
+	 while (idx < array_values.length && array_values[idx] == null) ++idx;
+	 return idx;
+       }
+
+    }	// end of inner class ElementIterator
+
+}	// end of inner class ArrayChildMap
+
+
+
 }	// end of class BicexValue
 
 
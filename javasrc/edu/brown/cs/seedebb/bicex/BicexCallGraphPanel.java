@@ -25,13 +25,13 @@
 package edu.brown.cs.seedebb.bicex;
 
 import edu.brown.cs.bubbles.board.BoardColors;
-import edu.brown.cs.bubbles.board.BoardThreadPool;
 
 import edu.brown.cs.ivy.petal.PetalArc;
 import edu.brown.cs.ivy.petal.PetalArcDefault;
 import edu.brown.cs.ivy.petal.PetalArcEnd;
 import edu.brown.cs.ivy.petal.PetalArcEndDefault;
 import edu.brown.cs.ivy.petal.PetalEditor;
+import edu.brown.cs.ivy.petal.PetalLayoutMethod;
 import edu.brown.cs.ivy.petal.PetalLevelLayout;
 import edu.brown.cs.ivy.petal.PetalModelDefault;
 import edu.brown.cs.ivy.petal.PetalNode;
@@ -49,6 +49,7 @@ import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 class BicexCallGraphPanel extends BicexPanel implements BicexConstants
@@ -67,6 +68,8 @@ private boolean 		call_tree;
 private static final String DEFAULT_BACKGROUND_PROP = "Bicex.CallGraphBackground";
 private static final String CURRENT_BACKGROUND_PROP = "Bicex.CallGraphCurrent";
 
+private static final int MAX_NODES = 10000;
+
 
 
 /********************************************************************************/
@@ -139,22 +142,11 @@ BicexCallGraphPanel(BicexEvaluationViewer ev,boolean tree)
 
 @Override void update()
 {
-   BoardThreadPool.start(new Updater());
+   call_graph.update();
 }
 
 
 
-private final class Updater implements Runnable {
-
-   @Override public void run() {
-      call_graph.update();
-      updateTime();
-    }
-
-}	// end of inner class Updater
-
-
-
 @Override void updateTime()
 {
    BicexExecution bex = getExecution();
@@ -182,12 +174,24 @@ private final class Updater implements Runnable {
 /*										*/
 /********************************************************************************/
 
-private class CallGraph extends JPanel {
+/**
+ *	The graph keeps its nodes indexed by context (for a call tree) or by
+ *	method, and its arcs by caller and callee.  On update, nodes and arcs
+ *	for contexts that were kept from the previous result are reused.  A
+ *	call tree with more than MAX_NODES contexts is shown summarized with
+ *	one node per method; if that is still too large only the root is shown.
+ **/
 
-   private PetalEditor	 	        petal_editor;
+private class CallGraph extends JPanel implements BicexLayoutService.LayoutFactory {
+
+   private PetalEditor			petal_editor;
    private transient PetalModelDefault	petal_model;
-   private transient PetalLevelLayout	layout_method;
-   private Node 		        current_node;
+   private transient BicexLayoutService layout_service;
+   private Node 			current_node;
+   private transient Map<BicexEvaluationContext,Node> context_nodes;
+   private transient Map<String,Node>	method_nodes;
+   private transient Map<Node,Map<Node,Arc>> node_arcs;
+   private boolean			by_method;
 
    private static final long serialVersionUID = 1;
 
@@ -198,37 +202,30 @@ private class CallGraph extends JPanel {
       PetalUndoSupport.getSupport().blockCommands();
       petal_model = new Model();
       petal_editor = new PetalEditor(petal_model);
-      layout_method = new PetalLevelLayout(petal_editor);
-      layout_method.setSplineArcs(false);
-      layout_method.setLevelX(false);
       add(petal_editor,BorderLayout.CENTER);
+      layout_service = new BicexLayoutService(this,petal_editor,petal_model,this);
       current_node = null;
+      context_nodes = new IdentityHashMap<>();
+      method_nodes = new HashMap<>();
+      node_arcs = new HashMap<>();
+      by_method = !call_tree;
       petal_editor.addZoomWheeler();
     }
 
+   @Override public PetalLayoutMethod createLayout(PetalEditor ed) {
+      PetalLevelLayout lm = new PetalLevelLayout(ed);
+      lm.setSplineArcs(false);
+      lm.setLevelX(false);
+      return lm;
+    }
+
+   boolean isByMethod() 			{ return by_method; }
+
    void update() {
-      petal_model.clear();
       BicexEvaluationContext root = getRootContext();
-      Node n = new Node(root);
-      petal_model.addNode(n);
-      Map<String,Node> known = (call_tree ? null : new HashMap<String,Node>());
-      if (known != null) {
-	 known.put(root.getMethod(),n);
-       }
-      addChildren(n,root,known);
+      if (root == null) return;
 
-      if (petal_model.getNodes().length > 10000) {
-	 petal_model.clear();
-	 petal_model.addNode(n);
-       }
-
-      petal_model.fireModelUpdated();
-      petal_editor.commandLayout(layout_method);
-      Dimension d = petal_editor.getPreferredSize();
-      setPreferredSize(d);
-      setSize(d);
-      setMinimumSize(d);
-      repaint();
+      layout_service.requestLayout(new GraphBuilder(root));
     }
 
    Node findNode(Point pt) {
@@ -245,14 +242,8 @@ private class CallGraph extends JPanel {
 
    Node findNode(BicexEvaluationContext ctx) {
       if (ctx == null) return null;
-      for (PetalNode pn : petal_model.getNodes()) {
-	 Node n = (Node) pn;
-	 if (n == null || n.getContext() == null) continue;
-	 if (n.getContext() == ctx) return n;
-	 if (n.getContext() == null) continue;
-	 if (!call_tree && n.getContext().getMethod().equals(ctx.getMethod())) return n;
-       }
-      return null;
+      if (by_method) return method_nodes.get(ctx.getMethod());
+      return context_nodes.get(ctx);
     }
 
    void setCurrent(Node n) {
@@ -269,36 +260,140 @@ private class CallGraph extends JPanel {
        }
     }
 
-   private void addChildren(Node n,BicexEvaluationContext ctx,Map<String,Node> known) {
+   private int countContexts(BicexEvaluationContext ctx,int max) {
+      int ct = 1;
       if (ctx.getInnerContexts() != null) {
 	 for (BicexEvaluationContext cctx : ctx.getInnerContexts()) {
-	    Node n1 = null;
-	    if (known != null) {
-	       n1 = known.get(cctx.getMethod());
-	     }
-	    if (n1 == null) {
-	       n1 = new Node(cctx);
-	       petal_model.addNode(n1);
-	       if (known != null) known.put(cctx.getMethod(),n1);
-	     }
-	    Arc a = null;
-	    if (known != null) {
-	       for (PetalArc pa : petal_model.getArcsFromNode(n)) {
-		  if (pa.getTarget() == n1) {
-		     a = (Arc) pa;
-		     a.addInstance();
-		     break;
-		   }
-		}
-	     }
-	    if (a == null) {
-	       a = new Arc(n,n1);
-	       petal_model.addArc(a);
-	     }
-	    addChildren(n1,cctx,known);
+	    ct += countContexts(cctx,max-ct);
+	    if (ct > max) break;
+	  }
+       }
+      return ct;
+    }
+
+   private class GraphBuilder implements BicexLayoutService.LayoutBuilder {
+
+      private BicexEvaluationContext root_context;
+      private boolean use_methods;
+      private Map<BicexEvaluationContext,Node> new_contexts;
+      private Map<String,Node> new_methods;
+      private Map<Node,Map<Node,Arc>> new_arcs;
+      private Map<BicexEvaluationContext,Node> old_contexts;
+      private Map<String,Node> old_methods;
+      private Map<Node,Map<Node,Arc>> old_arcs;
+      private Map<Node,BicexEvaluationContext> node_contexts;
+      private Map<Arc,Integer> arc_counts;
+      private BicexLayoutService.LayoutGraph layout_graph;
+
+      GraphBuilder(BicexEvaluationContext root) {
+	 root_context = root;
+	 use_methods = !call_tree;
+	 new_contexts = new IdentityHashMap<>();
+	 new_methods = new HashMap<>();
+	 new_arcs = new HashMap<>();
+	 old_contexts = context_nodes;
+	 old_methods = method_nodes;
+	 old_arcs = node_arcs;
+	 node_contexts = new HashMap<>();
+	 arc_counts = new HashMap<>();
+	 layout_graph = null;
+       }
+
+      @Override public void buildGraph(BicexLayoutService.LayoutGraph g) {
+	 layout_graph = g;
+	 if (!use_methods && countContexts(root_context,MAX_NODES) > MAX_NODES) use_methods = true;
+
+	 addNodes();
+	 if (g.getNodeCount() > MAX_NODES && !use_methods) {
+	    // summarize by method rather than dropping the tree
+	    use_methods = true;
+	    addNodes();
 	  }
+	 if (g.getNodeCount() > MAX_NODES) {
+	    clearNodes();
+	    getNode(root_context);
+	  }
+       }
+
+      private void addNodes() {
+	 clearNodes();
+	 Node n = getNode(root_context);
+	 addChildren(n,root_context);
+       }
+
+      private void clearNodes() {
+	 layout_graph.clear();
+	 new_contexts.clear();
+	 new_methods.clear();
+	 new_arcs.clear();
+	 node_contexts.clear();
+	 arc_counts.clear();
        }
-   }
+
+      @Override public void graphInstalled(BicexLayoutService.LayoutGraph g) {
+	 // reused nodes and arcs are displayed, so they are only changed here
+	 for (Map.Entry<Node,BicexEvaluationContext> ent : node_contexts.entrySet()) {
+	    ent.getKey().setContext(ent.getValue());
+	  }
+	 for (Map.Entry<Arc,Integer> ent : arc_counts.entrySet()) {
+	    ent.getKey().setInstances(ent.getValue());
+	  }
+	 context_nodes = new_contexts;
+	 method_nodes = new_methods;
+	 node_arcs = new_arcs;
+	 by_method = use_methods;
+	 updateTime();
+       }
+
+      Node getNode(BicexEvaluationContext ctx) {
+	 Node n = null;
+	 if (use_methods) {
+	    n = new_methods.get(ctx.getMethod());
+	    if (n != null) return n;
+	    n = old_methods.get(ctx.getMethod());
+	    if (n == null) n = new Node(ctx);
+	    else node_contexts.put(n,ctx);
+	    new_methods.put(ctx.getMethod(),n);
+	  }
+	 else {
+	    n = old_contexts.get(ctx);
+	    if (n == null) n = new Node(ctx);
+	    new_contexts.put(ctx,n);
+	  }
+	 layout_graph.addNode(n,null);
+	 return n;
+       }
+
+      void addChildren(Node n,BicexEvaluationContext ctx) {
+	 if (ctx.getInnerContexts() == null) return;
+	 for (BicexEvaluationContext cctx : ctx.getInnerContexts()) {
+	    if (layout_graph.isCancelled()) return;
+	    Node n1 = getNode(cctx);
+	    addArc(n,n1);
+	    addChildren(n1,cctx);
+	  }
+       }
+
+      private void addArc(Node f,Node t) {
+	 Map<Node,Arc> out = new_arcs.get(f);
+	 if (out == null) {
+	    out = new HashMap<>();
+	    new_arcs.put(f,out);
+	  }
+	 Arc a = out.get(t);
+	 if (a != null) {
+	    arc_counts.merge(a,1,Integer::sum);
+	    return;
+	  }
+	 Map<Node,Arc> oout = old_arcs.get(f);
+	 a = (oout == null ? null : oout.get(t));
+	 if (a == null) a = new Arc(f,t);
+	 out.put(t,a);
+	 arc_counts.put(a,1);
+	 layout_graph.addArc(a);
+       }
+
+    }	// end of inner class GraphBuilder
 
 }	// end of inner class CallGraph
 
@@ -327,8 +422,10 @@ private class Node extends PetalNodeDefault {
 
    BicexEvaluationContext getContext()			{ return for_context; }
 
+   void setContext(BicexEvaluationContext ctx)		{ for_context = ctx; }
+
    BicexEvaluationContext getTimedContext() {
-      if (!call_tree) {
+      if (call_graph.isByMethod()) {
 	 long when = getExecution().getCurrentTime();
 	 BicexEvaluationContext pctx = BicexCallGraphPanel.this.getContext();
 	 if (pctx == for_context) return for_context;
@@ -378,8 +475,9 @@ private class Arc extends PetalArcDefault
       setTargetEnd(new PetalArcEndDefault(PetalArcEnd.PETAL_ARC_END_ARROW));
     }
 
-   void addInstance() {
-      arc_weight++;
+   void setInstances(int ct) {
+      if (ct == arc_weight) return;
+      arc_weight = ct;
       float wt = (float) (1+Math.log(arc_weight)/Math.log(2));
       setStroke(new BasicStroke(wt));
     }
@@ -60,6 +60,36 @@ String BICEX_EXECUTE_ANNOT_COLOR_PROP = "Bicex.annot.color";
 
 
 
+/********************************************************************************/
+/*										*/
+/*	Seede communication settings						*/
+/*										*/
+/********************************************************************************/
+
+long BICEX_SEEDE_TIMEOUT = 30000;		// ms to wait for a reply
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Display update settings 						*/
+/*										*/
+/********************************************************************************/
+
+int BICEX_UPDATE_DELAY = 33;			// minimum ms between display updates
+
+int BICEX_GRAPHICS_CHECKPOINT = 256;		// commands between graphics checkpoints
+long BICEX_GRAPHICS_CACHE_SIZE = 32*1024*1024;	// bytes of checkpoint images per window
+
+int BICEX_VALUE_BUDGET = 64;			// MB of old values kept for OREF lookup
+
+int BICEX_CONSTANT_CACHE_SIZE = 8192;		// shared primitive values per session
+int BICEX_CONSTANT_LENGTH = 24; 		// longest primitive text shared
+
+int ARRAY_PAGE_SIZE = 1000;			// max array elements shown per tree node
+
+
+
 /********************************************************************************/
 /*										*/
 /*	Evaluation exit types							*/
@@ -97,6 +127,24 @@ interface BicexEvaluationUpdated extends EventListener {
 
 
 
+/********************************************************************************/
+/*										*/
+/*	Deferred value decoding 						*/
+/*										*/
+/********************************************************************************/
+
+interface BicexValueSource {
+
+   void decodeValue(BicexBaseValue bv);
+   boolean sameSource(BicexValueSource src);
+   long getSize();				// bytes of text needed to decode
+   boolean detach();				// stop sharing the original text
+   Map<String,BicexBaseValue> getReferences();	// values referred to by ID
+
+}	// end of interface BicexValueSource
+
+
+
 interface DisplayModel {
    int getWidth();
    int getHeight();
@@ -375,6 +375,10 @@ abstract class AbstractNode implements TreeNode, BicexTreeNode {
       computeChildren(lvl);
     }
 
+   protected void resetChildren() {
+      children_known = false;
+    }
+
    protected void addChild(AbstractNode n) {
       if (sorted_children != null) sorted_children.add(n);
       else {
@@ -492,7 +496,14 @@ private class ValueNode extends AbstractNode {
 
    @Override void addChildren() {
       long t = for_execution.getCurrentTime();
-      for (Map.Entry<String,BicexValue> ent : for_value.getChildren(t).entrySet()) {
+      int sz = for_value.getArraySize(t);
+      if (sz > ARRAY_PAGE_SIZE) {
+	 addArrayChildren(this,for_value,0,sz);
+	 return;
+       }
+      Map<String,BicexValue> chld = for_value.getChildren(t);
+      if (chld == null) return;
+      for (Map.Entry<String,BicexValue> ent : chld.entrySet()) {
 	 ValueNode nv = new ValueNode(this,ent.getKey(),ent.getValue());
 	 addChild(nv);
        }
@@ -513,6 +524,70 @@ private class ValueNode extends AbstractNode {
 
 
 
+/********************************************************************************/
+/*										*/
+/*	RangeNode -- node representing a group of array elements		*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Add the elements from..to-1 of an array to the given node.  Ranges
+ *	larger than ARRAY_PAGE_SIZE are shown as groups (nested as needed) so
+ *	that no node has more than ARRAY_PAGE_SIZE children and elements are
+ *	only fetched for groups that are expanded.
+ **/
+
+private void addArrayChildren(AbstractNode par,BicexValue arr,int from,int to)
+{
+   if (to - from <= ARRAY_PAGE_SIZE) {
+      long t = for_execution.getCurrentTime();
+      for (int i = from; i < to; ++i) {
+	 BicexValue ev = arr.getArrayElement(t,i);
+	 if (ev != null) par.addChild(new ValueNode(par,"[" + i + "]",ev));
+       }
+      return;
+    }
+
+   long step = ARRAY_PAGE_SIZE;
+   while ((to - from + step - 1) / step > ARRAY_PAGE_SIZE) step *= ARRAY_PAGE_SIZE;
+   for (long i = from; i < to; i += step) {
+      int end = (int) Math.min(to,i+step);
+      par.addChild(new RangeNode(par,arr,(int) i,end));
+    }
+}
+
+
+
+private class RangeNode extends AbstractNode {
+
+   private BicexValue array_value;
+   private int from_index;
+   private int to_index;
+
+   RangeNode(AbstractNode par,BicexValue arr,int from,int to) {
+      super(par);
+      array_value = arr;
+      from_index = from;
+      to_index = to;
+    }
+
+   @Override String getName() {
+      return "[" + from_index + ".." + (to_index-1) + "]";
+    }
+
+   @Override void addChildren() {
+      addArrayChildren(this,array_value,from_index,to_index);
+    }
+
+   @Override void update(int lvl) {
+      // the elements of a page are only built when it is expanded
+      resetChildren();
+    }
+
+}	// end of inner class RangeNode
+
+
+
 /********************************************************************************/
 /*										*/
 /*	Value sorter								*/
@@ -525,20 +600,29 @@ private static final class ValueSorter implements Comparator<AbstractNode> {
       String nm1 = n1.getName();
       String nm2 = n2.getName();
       if (nm1.startsWith("[") && nm2.startsWith("[")) {
-	 int idx1 = nm1.indexOf("]");
-	 int idx2 = nm2.indexOf("]");
-	 try {
-	    int v1 = Integer.parseInt(nm1.substring(1,idx1));
-	    int v2 = Integer.parseInt(nm2.substring(1,idx2));
+	 int v1 = getIndex(nm1);
+	 int v2 = getIndex(nm2);
+	 if (v1 >= 0 && v2 >= 0) {
 	    if (v1 < v2) return -1;
 	    if (v1 > v2) return 1;
-	    return 0;
+	    return nm1.compareTo(nm2);
 	  }
-	 catch (NumberFormatException e) { }
        }
       return nm1.compareTo(nm2);
     }
 
+   private int getIndex(String nm) {
+      int idx = nm.indexOf("]");
+      int idx1 = nm.indexOf("..");
+      if (idx1 > 0 && idx1 < idx) idx = idx1;
+      if (idx < 0) return -1;
+      try {
+	 return Integer.parseInt(nm.substring(1,idx));
+       }
+      catch (NumberFormatException e) { }
+      return -1;
+    }
+
 }	// end of inner class ValueSorter
 
 
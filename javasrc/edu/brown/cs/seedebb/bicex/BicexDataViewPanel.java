@@ -29,20 +29,19 @@ import edu.brown.cs.bubbles.board.BoardColors;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
 
-import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.MouseEvent;
-import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.TreeSet;
 
 
@@ -137,6 +136,7 @@ private synchronized List<VarData> getCurrentData()
    if (ctx == null) return null;
    addContextValues(dmap,ctx);
    removeEmpties(dmap);
+   for (VarData vd : dmap.values()) vd.finish();
 
    Set<VarData> srslt = new TreeSet<VarData>(dmap.values());
    rslt = new ArrayList<>(srslt);
@@ -177,9 +177,11 @@ private void addContextValue(Map<String,VarData> dmap,BicexEvaluationContext ctx
       vd = new VarData(ctx.getMethod(),name);
       dmap.put(nm,vd);
     }
-   for (Integer time : bv.getTimeChanges()) {
+   int ntimes = bv.getTimeChangeCount();
+   for (int i = 0; i < ntimes; ++i) {
+      long time = bv.getTimeChange(i);
       if (time != 0) {
-	 if (!vd.addTime(time)) break;		// there can only be one set per time, so a duplicate indicates reuse
+	 if (!vd.addTime((int) time)) break;		// there can only be one set per time, so a duplicate indicates reuse
        }
       if (bv.hasChildren(time)) {
 	 List<VarData> ndata = new ArrayList<VarData>(pardata);
@@ -218,11 +220,22 @@ private void removeEmpties(Map<String,VarData> dmap)
 /*										*/
 /********************************************************************************/
 
+/**
+ *	The points are drawn into an image, one per pixel column that has a
+ *	write for each variable, which is kept until the data or the panel
+ *	size changes.  A time change only redraws the time line.
+ **/
+
 private class DataPanel extends JPanel {
 
+   private transient BufferedImage plot_image;
+   private transient List<VarData> plot_data;
+
    private static final long serialVersionUID = 1;
 
    DataPanel() {
+      plot_image = null;
+      plot_data = null;
       setToolTipText("Data Panel");
     }
 
@@ -232,49 +245,59 @@ private class DataPanel extends JPanel {
 
       Graphics2D g2 = (Graphics2D) g;
 
-      g2.setColor(BoardColors.getColor("Bicex.DataViewBackground"));
-      g2.fillRect(0,0,getWidth(),getHeight());
-
       BicexEvaluationContext base = getRootContext();
-      double t0 = base.getStartTime();
-      double t1 = base.getEndTime();
-      double nrow = svd.size();
-
-      double wd = getWidth();
-      double ht = getHeight();
-      double rowht = ht/nrow;
+      long t0 = base.getStartTime();
+      long t1 = base.getEndTime();
+      int wd = getWidth();
+      int ht = getHeight();
+      if (wd <= 0 || ht <= 0) return;
+
+      if (plot_image == null || plot_data != svd ||
+	    plot_image.getWidth() != wd || plot_image.getHeight() != ht) {
+	 plot_image = new BufferedImage(wd,ht,BufferedImage.TYPE_INT_ARGB);
+	 plot_data = svd;
+	 Graphics2D ig = plot_image.createGraphics();
+	 try {
+	    paintPlot(ig,svd,t0,t1,wd,ht);
+	  }
+	 finally {
+	    ig.dispose();
+	  }
+       }
+      g2.drawImage(plot_image,0,0,null);
 
       long now = getExecution().getCurrentTime();
-      int timex = (int) ((now - t0) / (t1 - t0) * wd);
+      int timex = (int) ((double) (now - t0) / (t1 - t0) * wd);
       g2.setColor(BoardColors.getColor("Bicex.DataViewLine"));
-      g2.drawLine(timex,0,timex,(int) ht);
+      g2.drawLine(timex,0,timex,ht);
+    }
+
+   private void paintPlot(Graphics2D g2,List<VarData> svd,long t0,long t1,int wd,int ht) {
+      g2.setColor(BoardColors.getColor("Bicex.DataViewBackground"));
+      g2.fillRect(0,0,wd,ht);
 
-      Rectangle2D r2 = new Rectangle2D.Double(0,0,4,4);
+      double rowht = ((double) ht)/svd.size();
 
       int ct = 0;
       for (VarData vd : svd) {
-	 for (Integer time : vd.getTimes()) {
-	    if (time < t0 || time > t1) continue;
-	    double cx = (time - t0) / (t1-t0) * wd;
-	    double cy = (ct * rowht) + rowht/2;
-	    r2.setFrame(cx,cy,4,4);
-	    Color c = getColorForMethod(vd.getColorName());
-	    g2.setColor(c);
-	    g2.fill(r2);
+	 BitSet cols = vd.getColumns(wd,t0,t1);
+	 int cy = (int) ((ct * rowht) + rowht/2);
+	 g2.setColor(getColorForMethod(vd.getColorName()));
+	 for (int cx = cols.nextSetBit(0); cx >= 0; cx = cols.nextSetBit(cx+1)) {
+	    g2.fillRect(cx,cy,4,4);
 	  }
 	 ++ct;
        }
     }
 
    @Override public String getToolTipText(MouseEvent evt) {
-      double x = evt.getX();
+      int x = evt.getX();
       BicexEvaluationContext base = getRootContext();
-      double t0 = base.getStartTime();
-      double t1 = base.getEndTime();
-      double wd = getWidth();
-      double time = (x/wd)*(t1-t0) + t0;
+      long t0 = base.getStartTime();
+      long t1 = base.getEndTime();
+      int wd = getWidth();
+      double time = (((double) x)/wd)*(t1-t0) + t0;
       int itime = (int) (time + 0.5);
-      int tdelta = (int) (2 * (t1-t0)/wd);
 
       List<VarData> svd = getCurrentData();
       if (svd == null) return "";
@@ -295,7 +318,7 @@ private class DataPanel extends JPanel {
 	   }
 	  if (drow < 0 || drow >= svd.size()) continue;
 	  VarData vd1 = svd.get(drow);
-	  if (vd1.isActiveAtTime(itime,tdelta)) {
+	  if (vd1.isActiveAtColumn(x,2,wd,t0,t1)) {
 	     vd = vd1;
 	     break;
 	   }
@@ -322,29 +345,74 @@ private static class VarData implements Comparable<VarData> {
 
    private String context_name;
    private String var_name;
-   private SortedSet<Integer> write_times;
+   private int [] write_times;
+   private int time_count;
+   private Set<Integer> time_set;
+   private BitSet time_columns;
+   private int column_width;
 
    VarData(String ctx,String var) {
       context_name = ctx;
       var_name = var;
-      write_times = new TreeSet<>();
+      write_times = new int[4];
+      time_count = 0;
+      time_set = new HashSet<>();
+      time_columns = null;
+      column_width = -1;
     }
 
    boolean addTime(int when) {
-      return write_times.add(when);
+      if (!time_set.add(when)) return false;
+      if (time_count == write_times.length) {
+	 write_times = Arrays.copyOf(write_times,time_count*2);
+       }
+      write_times[time_count++] = when;
+      return true;
     }
 
-   boolean isActiveAtTime(int when,int err) {
-      SortedSet<Integer> tail = write_times.tailSet(when-err);
-      if (tail.isEmpty()) return false;
-      int next = tail.first();
-      if (Math.abs(next-when) <= 2*err) return true;
-      return false;
+   void finish() {
+      write_times = Arrays.copyOf(write_times,time_count);
+      Arrays.sort(write_times);
+      time_set = null;
     }
 
-   boolean isEmpty()				{ return write_times.isEmpty(); }
+   /**
+    *	Return the pixel columns with a write for a plot of the given width
+    *	covering times t0 to t1.  This is computed once per width, skipping
+    *	over the writes that fall in an already marked column.
+    **/
+
+   synchronized BitSet getColumns(int wd,long t0,long t1) {
+      if (time_columns != null && column_width == wd) return time_columns;
+
+      BitSet cols = new BitSet(wd);
+      double scale = ((double) wd)/(t1-t0);
+      int i = lowerBound(t0);
+      while (i < time_count && write_times[i] <= t1) {
+	 int col = (int) ((write_times[i] - t0) * scale);
+	 cols.set(col);
+	 double tnext = t0 + (col+1) / scale;
+	 i = Math.max(i+1,lowerBound((long) Math.ceil(tnext)));
+       }
+
+      time_columns = cols;
+      column_width = wd;
+      return cols;
+    }
+
+   boolean isActiveAtColumn(int col,int err,int wd,long t0,long t1) {
+      int next = getColumns(wd,t0,t1).nextSetBit(Math.max(0,col-err));
+      return next >= 0 && next <= col+err;
+    }
+
+   private int lowerBound(long t) {
+      if (t > Integer.MAX_VALUE) return time_count;
+      int idx = Arrays.binarySearch(write_times,0,time_count,(int) Math.max(t,Integer.MIN_VALUE));
+      if (idx < 0) idx = -idx-1;
+      return idx;
+    }
 
-   Collection<Integer> getTimes()		{ return write_times; }
+   boolean isEmpty()				{ return time_count == 0; }
 
    String getColorName()			{ return context_name; }
 
@@ -354,8 +422,8 @@ private static class VarData implements Comparable<VarData> {
 
    @Override public int compareTo(VarData vd) {
       if (vd == this) return 0;
-      int t0 = write_times.first();
-      int t1 = vd.write_times.first();
+      int t0 = write_times[0];
+      int t1 = vd.write_times[0];
       if (t0 < t1) return -1;
       else if (t0 > t1) return 1;
       else return var_name.compareTo(vd.var_name);
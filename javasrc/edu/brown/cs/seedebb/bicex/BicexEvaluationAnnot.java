@@ -31,6 +31,7 @@ import edu.brown.cs.bubbles.board.BoardColors;
 import edu.brown.cs.bubbles.board.BoardImage;
 import edu.brown.cs.bubbles.board.BoardLog;
 import edu.brown.cs.bubbles.board.BoardMetrics;
+import edu.brown.cs.bubbles.board.BoardThreadPool;
 import edu.brown.cs.bubbles.buda.BudaBubble;
 import edu.brown.cs.bubbles.buda.BudaBubbleArea;
 import edu.brown.cs.bubbles.buda.BudaConstants;
@@ -42,6 +43,7 @@ import javax.swing.Action;
 import javax.swing.Icon;
 import javax.swing.JComponent;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Position;
 
@@ -51,7 +53,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
 class BicexEvaluationAnnot extends BicexPanel implements BicexConstants
@@ -220,23 +221,14 @@ private class EvalAnnot implements BaleAnnotation {
 
    @Override public void addPopupButtons(Component c,JPopupMenu m) {
       Map<String,BicexValue> values = eval_context.getValues();
-      BicexValue lnv = values.get("*LINE*");
-      lnv.reset();
-      long prev = eval_context.getStartTime();
-      long next = 0;
-      long laststart = -1;
-      for (Integer t0 : lnv.getTimeChanges()) {
-         String lnov = lnv.getStringValue(t0+1);
-         if (lnov != null) {
-            int lno = Integer.parseInt(lnov);
-            if (lno == line_number) laststart = t0;
-          }
-         if (t0 > exec_time) {
-            next = t0;
-            break;
-          }
-         prev = t0;
-       }
+      BicexLineIndex li = eval_context.getLineIndex();
+      if (li == null) return;
+      long prev = li.getLineStartTime(exec_time);
+      if (prev < 0) prev = eval_context.getStartTime();
+      long next = li.getLineEndTime(exec_time);
+      if (next < 0) next = 0;
+      long [] ltimes = li.getLineTimes(line_number);
+      long laststart = (ltimes.length == 0 ? -1 : ltimes[ltimes.length-1]);
    
       Map<String,BicexValue> whys = new LinkedHashMap<>();
    
@@ -258,14 +250,8 @@ private class EvalAnnot implements BaleAnnotation {
             if (eval_context.getEndTime() == exec_time) whys.put(var,bv);
             continue;
           }
-         List<Integer> tc = bv.getTimeChanges();
-         for (Integer t0 : tc) {
-            if (t0 != 0 && t0 >= prev && t0 <= next) {
-               whys.put(var,bv);
-               break;
-             }
-            else if (t0 > next) break;
-          }
+         long t0 = bv.getCeilingTimeChange(Math.max(prev,1));
+         if (t0 > 0 && t0 <= next) whys.put(var,bv);
        }
       BoardLog.logD("BICEX","Found " + whys);
       for (Map.Entry<String,BicexValue> ent : whys.entrySet()) {
@@ -283,11 +269,12 @@ private class EvalAnnot implements BaleAnnotation {
 /*										*/
 /********************************************************************************/
 
-private class WhyAction extends AbstractAction {
+private class WhyAction extends AbstractAction implements Runnable {
 
    private String var_name;
    private transient BicexValue orig_value;
    private long exec_time;
+   private transient BicexVarHistory var_history;
    private transient BicexPanel history_panel;
    private static final long serialVersionUID = 1;
 
@@ -296,14 +283,26 @@ private class WhyAction extends AbstractAction {
       var_name = var;
       orig_value = val;
       exec_time = when;
+      var_history = null;
       history_panel = null;
       putValue(Action.NAME,getLabel());
     }
 
    @Override public void actionPerformed(ActionEvent evt) {
-      BicexVarHistory hist = new BicexVarHistory(eval_viewer,orig_value,var_name,true);
-      hist.process();
-      history_panel = hist.getPanel();
+      var_history = new BicexVarHistory(eval_viewer,orig_value,var_name,true);
+      BoardThreadPool.start(this);
+    }
+
+   @Override public void run() {
+      if (!SwingUtilities.isEventDispatchThread()) {
+	 // process waits for the dependency replies from seede
+	 var_history.process();
+	 SwingUtilities.invokeLater(this);
+	 return;
+       }
+
+      history_panel = var_history.getPanel();
+      var_history = null;
       JComponent graph = history_panel.getComponent();
       SwingGridPanel pnl = new SwingGridPanel();
       pnl.beginLayout();
@@ -31,11 +31,19 @@ import edu.brown.cs.ivy.xml.IvyXml;
 
 import org.w3c.dom.Element;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 
@@ -57,6 +65,11 @@ private String		file_name;
 private Map<String,BicexValue> value_map;
 private long		start_time;
 private long		end_time;
+private BicexLineIndex	line_index;
+private long [] 	child_starts;
+private long [] 	child_ends;
+private Map<String,int []> name_index;
+private CountData	count_data;
 
 
 
@@ -72,23 +85,16 @@ BicexEvaluationContext(BicexEvaluationContext par,
       Element xml,Map<String,BicexBaseValue> knownvalues,
       Map<String,BicexBaseValue> prevvalues)
 {
-   method_name = IvyXml.getAttrString(xml,"METHOD");
-   file_name = IvyXml.getAttrString(xml,"FILE");
-   context_id = IvyXml.getAttrString(xml,"ID");
-   start_time = IvyXml.getAttrLong(xml,"START");
-   end_time = IvyXml.getAttrLong(xml,"END");
-
-   parent_context = par;
-   child_contexts = null;
-   value_map = new HashMap<>();
+   this(par,IvyXml.getAttrString(xml,"ID"),IvyXml.getAttrString(xml,"METHOD"),
+	 IvyXml.getAttrString(xml,"FILE"),
+	 IvyXml.getAttrLong(xml,"START"),IvyXml.getAttrLong(xml,"END"));
 
    for (Element var : IvyXml.children(xml,"VARIABLE")) {
       String nm = IvyXml.getAttrString(var,"NAME");
       int line = IvyXml.getAttrInt(var,"LINE");
       try {
 	 BicexValue cv = BicexRefValue.createRefValue(var,knownvalues,prevvalues);
-	 if (line > 0) value_map.put(nm + "@" + line,cv);
-	 else value_map.put(nm,cv);
+	 addVariable(nm,line,cv);
       }
       catch (Throwable t) {
 	 BoardLog.logE("BICEX", "Problem creating value",t);
@@ -96,13 +102,56 @@ BicexEvaluationContext(BicexEvaluationContext par,
     }
 
    for (Element ctx : IvyXml.children(xml,"CONTEXT")) {
-      if (child_contexts == null) child_contexts = new ArrayList<>();
       BicexEvaluationContext cctx = new BicexEvaluationContext(this,ctx,knownvalues,prevvalues);
-      child_contexts.add(cctx);
+      addInnerContext(cctx);
     }
 }
 
 
+BicexEvaluationContext(BicexEvaluationContext par,String id,String method,String file,
+      long start,long end)
+{
+   method_name = method;
+   file_name = file;
+   context_id = id;
+   start_time = start;
+   end_time = end;
+
+   parent_context = par;
+   child_contexts = null;
+   value_map = new HashMap<>();
+   line_index = null;
+   child_starts = null;
+   child_ends = null;
+   name_index = null;
+   count_data = null;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Setup methods								*/
+/*										*/
+/********************************************************************************/
+
+synchronized void addVariable(String nm,int line,BicexValue cv)
+{
+   if (line > 0) value_map.put(nm + "@" + line,cv);
+   else value_map.put(nm,cv);
+   name_index = null;
+}
+
+
+void addInnerContext(BicexEvaluationContext cctx)
+{
+   if (child_contexts == null) child_contexts = new ArrayList<>();
+   child_contexts.add(cctx);
+   child_starts = null;
+   child_ends = null;
+}
+
+
 
 /********************************************************************************/
 /*										*/
@@ -169,34 +218,86 @@ BicexEvaluationContext getParent()		{ return parent_context; }
 
 Map<String,BicexValue> getValues()		{ return value_map; }
 
-void addValue(String id,BicexValue v)		{ value_map.put(id,v); }
+synchronized void addValue(String id,BicexValue v)
+{
+   value_map.put(id,v);
+   if (id.equals("*LINE*")) {
+      line_index = null;
+      for (BicexEvaluationContext ctx = this; ctx != null; ctx = ctx.parent_context) {
+	 ctx.count_data = null;
+       }
+    }
+   name_index = null;
+}
+
+/**
+ *	Return the key of the variable named id that is visible at line lno.
+ *	This is the declaration with the greatest line at or before lno; if
+ *	there is none, the undecorated name is used if present, otherwise
+ *	the first declaration.
+ **/
 
 String getValueName(String id,int lno)
 {
-   String rslt = null;
-   int bestline = 0;
+   int [] lines = getNameIndex().get(id);
+   if (lines == null) return null;
+
+   int lo = 0;
+   int hi = lines.length-1;
+   while (lo <= hi) {
+      int mid = (lo+hi) >>> 1;
+      if (lines[mid] <= lno) lo = mid+1;
+      else hi = mid-1;
+    }
+
+   int line;
+   if (hi >= 0 && lines[hi] > 0) line = lines[hi];
+   else line = lines[0];
+
+   if (line > 0) return id + "@" + line;
+   return id;
+}
+
 
+
+/**
+ *	Map from variable base name to its sorted declaration lines (0 for a
+ *	variable without a line), built on first use.
+ **/
+
+private synchronized Map<String,int []> getNameIndex()
+{
+   if (name_index != null) return name_index;
+
+   Map<String,int []> idx = new HashMap<>();
    for (String s : value_map.keySet()) {
       if (s.startsWith("*")) continue;
       String var = s;
       int vln = 0;
-      int idx = s.indexOf("@");
-      if (idx > 0) {
-	 vln = Integer.parseInt(var.substring(idx+1));
-	 var = var.substring(0,idx);
-       }
-      if (var.equals(id)) {
-	 if (rslt == null) {
-	    rslt = s;
-	    bestline = vln;
+      int i = s.indexOf("@");
+      if (i > 0) {
+	 try {
+	    vln = Integer.parseInt(s.substring(i+1));
 	  }
-	 else if (vln > 0 && vln > bestline && vln <= lno) {
-	    rslt = s;
-	    bestline = vln;
+	 catch (NumberFormatException e) {
+	    continue;
 	  }
+	 var = s.substring(0,i);
        }
+      int [] lines = idx.get(var);
+      if (lines == null) lines = new int[] { vln };
+      else {
+	 lines = Arrays.copyOf(lines,lines.length+1);
+	 lines[lines.length-1] = vln;
+       }
+      idx.put(var,lines);
     }
-   return rslt;
+   for (int [] lines : idx.values()) {
+      if (lines.length > 1) Arrays.sort(lines);
+    }
+
+   name_index = idx;
+   return name_index;
 }
 
 
@@ -210,81 +311,398 @@ long getStartTime()				{ return start_time; }
 
 long getEndTime()				{ return end_time; }
 
-Integer getLineAtTime(long t)
+
+
+/********************************************************************************/
+/*										*/
+/*	Time-based context lookup						*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Return the first inner context active at time t, null if none.
+ *	Inner contexts are sequential, so this is a binary search over their
+ *	end times.
+ **/
+
+BicexEvaluationContext getInnerContextAt(long t)
+{
+   int idx = findInnerIndex(t);
+   if (idx < 0) return null;
+   return child_contexts.get(idx);
+}
+
+
+/**
+ *	Return the deepest context active at time t starting with this one,
+ *	null if this context isn't active at t.
+ **/
+
+BicexEvaluationContext getDeepestContextAt(long t)
 {
-   BicexValue lnv = value_map.get("*LINE*");
-   if (lnv == null || file_name == null) return null;
-   String lnx = lnv.getStringValue(t);
-   if (lnx == null) return null;
-   try {
-      return Integer.decode(lnx);
+   if (start_time > t || end_time < t) return null;
+
+   BicexEvaluationContext ctx = this;
+   for ( ; ; ) {
+      BicexEvaluationContext nctx = ctx.getInnerContextAt(t);
+      if (nctx == null) return ctx;
+      ctx = nctx;
     }
-   catch (NumberFormatException e) { }
+}
+
+
+/**
+ *	Return the context active at time t that is lvl levels below this one.
+ *	A negative level returns the deepest context.
+ **/
+
+BicexEvaluationContext getContextAt(long t,int lvl)
+{
+   if (lvl < 0) return getDeepestContextAt(t);
+   if (start_time > t || end_time < t) return null;
+   if (lvl == 0) return this;
+
+   int idx = findInnerIndex(t);
+   if (idx < 0) return null;
+   for (int i = idx; i < child_contexts.size(); ++i) {
+      BicexEvaluationContext cctx = child_contexts.get(i);
+      if (cctx.start_time > t) break;
+      BicexEvaluationContext rctx = cctx.getContextAt(t,lvl-1);
+      if (rctx != null) return rctx;
+    }
+
    return null;
 }
 
 
 
+private int findInnerIndex(long t)
+{
+   long [] starts;
+   long [] ends;
+   synchronized (this) {
+      if (child_contexts == null) return -1;
+      if (child_starts == null) setupChildTimes();
+      starts = child_starts;
+      ends = child_ends;
+    }
+
+   if (ends == null) {
+      // inner contexts not in time order; fall back on a scan
+      for (int i = 0; i < child_contexts.size(); ++i) {
+	 BicexEvaluationContext cctx = child_contexts.get(i);
+	 if (cctx.start_time <= t && cctx.end_time >= t) return i;
+       }
+      return -1;
+    }
+
+   int lo = 0;
+   int hi = ends.length-1;
+   while (lo <= hi) {
+      int mid = (lo+hi) >>> 1;
+      if (ends[mid] < t) lo = mid+1;
+      else hi = mid-1;
+    }
+   if (lo >= ends.length || starts[lo] > t) return -1;
+
+   return lo;
+}
+
+
+
+private void setupChildTimes()
+{
+   int ct = child_contexts.size();
+   long [] starts = new long[ct];
+   long [] ends = new long[ct];
+   boolean sorted = true;
+   for (int i = 0; i < ct; ++i) {
+      BicexEvaluationContext cctx = child_contexts.get(i);
+      starts[i] = cctx.start_time;
+      ends[i] = cctx.end_time;
+      if (i > 0 && (starts[i] < starts[i-1] || ends[i] < ends[i-1])) sorted = false;
+    }
+
+   child_starts = starts;
+   child_ends = (sorted ? ends : null);
+}
+
+Integer getLineAtTime(long t)
+{
+   BicexLineIndex li = getLineIndex();
+   if (li == null || file_name == null) return null;
+
+   // the line at t is the one set before t; time 0 means the final line
+   int idx = (t == 0 ? li.getChangeCount()-1 : li.findChange(t-1));
+   if (idx < 0) return null;
+   int line = li.getChangeLine(idx);
+   if (line < 0) return null;
+   return line;
+}
+
+
+/**
+ *	Return the index of executed lines for this context, built on first
+ *	use.  Returns null if the context has no line information.
+ **/
+
+synchronized BicexLineIndex getLineIndex()
+{
+   if (line_index == null) {
+      BicexValue lnv = value_map.get("*LINE*");
+      if (lnv == null) return null;
+      line_index = new BicexLineIndex(lnv);
+    }
+
+   return line_index;
+}
+
+
+
 /********************************************************************************/
 /*										*/
-/*	Compute execution count data						*/
+/*	Reconciliation with a previous result					*/
 /*										*/
 /********************************************************************************/
 
-@Override public BicexCountData getCountData()
+/**
+ *	Reconcile this newly decoded context with the matching context from
+ *	the previous result.  Values and inner contexts that have not changed
+ *	are taken from the old tree.  If nothing in the subtree differs, the
+ *	old context itself is returned.  Contexts whose own contents changed
+ *	(or that are new) are added to chngs and the old values that are
+ *	kept are added to kept.
+ **/
+
+BicexEvaluationContext reconcile(BicexEvaluationContext old,Collection<BicexEvaluationContext> chngs,
+      Collection<BicexValue> kept)
 {
-   CountData bcd = new CountData();
+   if (old == null || !Objects.equals(method_name,old.method_name) ||
+	 !Objects.equals(file_name,old.file_name)) {
+      chngs.add(this);
+      return this;
+    }
 
-   addCountData(this,bcd);
+   boolean same = Objects.equals(context_id,old.context_id) &&
+      start_time == old.start_time && end_time == old.end_time &&
+      value_map.size() == old.value_map.size();
 
-   return bcd;
+   for (Map.Entry<String,BicexValue> ent : value_map.entrySet()) {
+      BicexValue ov = old.value_map.get(ent.getKey());
+      if (ov != null && ent.getValue().sameValue(ov,new IdentityHashMap<>())) {
+	 ent.setValue(ov);
+	 kept.add(ov);
+       }
+      else same = false;
+    }
+   if (!same) chngs.add(this);
+
+   int ocnt = (old.child_contexts == null ? 0 : old.child_contexts.size());
+   int ncnt = (child_contexts == null ? 0 : child_contexts.size());
+   boolean kids = (ocnt == ncnt);
+
+   if (child_contexts != null) {
+      Map<String,List<BicexEvaluationContext>> oldkids = old.getInnerContextsByMethod();
+      Map<String,Integer> counts = new HashMap<>();
+      for (int i = 0; i < child_contexts.size(); ++i) {
+	 BicexEvaluationContext cctx = child_contexts.get(i);
+	 String mthd = cctx.getMethod();
+	 Integer ct = counts.get(mthd);
+	 int ord = (ct == null ? 0 : ct);
+	 counts.put(mthd,ord+1);
+	 List<BicexEvaluationContext> octxs = oldkids.get(mthd);
+	 BicexEvaluationContext octx = (octxs == null || ord >= octxs.size() ? null : octxs.get(ord));
+	 BicexEvaluationContext rctx = cctx.reconcile(octx,chngs,kept);
+	 if (rctx != cctx) {
+	    rctx.parent_context = this;
+	    child_contexts.set(i,rctx);
+	    child_starts = null;
+	    child_ends = null;
+	  }
+	 if (rctx != octx || i >= ocnt || old.child_contexts.get(i) != octx) kids = false;
+       }
+    }
+
+   if (same && kids) {
+      if (old.child_contexts != null) {
+	 for (BicexEvaluationContext octx : old.child_contexts) {
+	    octx.parent_context = old;
+	  }
+       }
+      return old;
+    }
+
+   return this;
 }
 
 
 
-private void addCountData(BicexEvaluationContext ctx,CountData cd)
+/**
+ *	Return the inner contexts grouped by method, each list in call order.
+ **/
+
+private Map<String,List<BicexEvaluationContext>> getInnerContextsByMethod()
 {
-   String method = ctx.getMethod();
-   Map<Integer,int []> cts = cd.get(method);
-   if (cts == null) {
-      cts = new HashMap<>();
-      cd.put(method,cts);
-    }
-   BicexValue lnv = ctx.getValues().get("*LINE*");
-   if (lnv != null) {
-      List<Integer> times = lnv.getTimeChanges();
-      for (Integer t : times) {
-	 String xv = lnv.getStringValue(t+1);
-	 int line = Integer.parseInt(xv);
-	 if (line == 0) continue;
-	 int [] ct = cts.get(line);
-	 if (ct == null) {
-	    ct = new int[1];
-	    cts.put(line,ct);
-	    ct[0] = 0;
-	  }
-	 ++ct[0];
+   Map<String,List<BicexEvaluationContext>> rslt = new HashMap<>();
+   if (child_contexts == null) return rslt;
+
+   for (BicexEvaluationContext ctx : child_contexts) {
+      List<BicexEvaluationContext> lst = rslt.get(ctx.getMethod());
+      if (lst == null) {
+	 lst = new ArrayList<>();
+	 rslt.put(ctx.getMethod(),lst);
        }
+      lst.add(ctx);
     }
-   if (ctx.getInnerContexts() != null) {
-      for (BicexEvaluationContext cctx : ctx.getInnerContexts()) {
-	 addCountData(cctx,cd);
+
+   return rslt;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Compute execution count data						*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Return the execution counts for this context and its inner contexts.
+ *	This is computed once, from the line counts of each context and the
+ *	(memoized) counts of the inner contexts.  The result is shared and
+ *	should not be modified.
+ **/
+
+@Override public synchronized BicexCountData getCountData()
+{
+   if (count_data == null) {
+      CountData cd = new CountData();
+      BicexLineIndex li = getLineIndex();
+      if (li != null) cd.addCounts(method_name,new LineCounts(li.getHitLines(),li.getHitCounts()));
+      else cd.addCounts(method_name,LineCounts.EMPTY);
+      if (child_contexts != null) {
+	 for (BicexEvaluationContext cctx : child_contexts) {
+	    CountData ccd = (CountData) cctx.getCountData();
+	    for (Map.Entry<String,Map<Integer,int []>> ent : ccd.entrySet()) {
+	       cd.addCounts(ent.getKey(),(LineCounts) ent.getValue());
+	     }
+	  }
        }
+      count_data = cd;
     }
+
+   return count_data;
 }
 
 
-private class CountData extends HashMap<String,Map<Integer,int []>> implements BicexCountData {
+
+private static class CountData extends HashMap<String,Map<Integer,int []>> implements BicexCountData {
 
    private static final long serialVersionUID = 1;
 
    CountData() {
     }
 
+   void addCounts(String method,LineCounts lc) {
+      LineCounts olc = (LineCounts) get(method);
+      if (olc == null) put(method,lc);
+      else put(method,olc.merge(lc));
+    }
+
 }	// end of inner class CountData
 
 
 
+/**
+ *	Counts for the lines of a method, held as parallel arrays sorted by
+ *	line.  Instances are immutable so they can be shared between the
+ *	count data of a context and its ancestors.
+ **/
+
+private static class LineCounts extends AbstractMap<Integer,int []> {
+
+   private int [] count_lines;
+   private int [] count_values;
+
+   static final LineCounts EMPTY = new LineCounts(new int[0],new int[0]);
+
+   LineCounts(int [] lines,int [] counts) {
+      count_lines = lines;
+      count_values = counts;
+    }
+
+   LineCounts merge(LineCounts lc) {
+      if (lc.count_lines.length == 0) return this;
+      if (count_lines.length == 0) return lc;
+
+      int [] lines = new int[count_lines.length + lc.count_lines.length];
+      int [] counts = new int[lines.length];
+      int i = 0;
+      int j = 0;
+      int n = 0;
+      while (i < count_lines.length || j < lc.count_lines.length) {
+	 if (j >= lc.count_lines.length ||
+	       (i < count_lines.length && count_lines[i] < lc.count_lines[j])) {
+	    lines[n] = count_lines[i];
+	    counts[n++] = count_values[i++];
+	  }
+	 else if (i >= count_lines.length || lc.count_lines[j] < count_lines[i]) {
+	    lines[n] = lc.count_lines[j];
+	    counts[n++] = lc.count_values[j++];
+	  }
+	 else {
+	    lines[n] = count_lines[i];
+	    counts[n++] = count_values[i++] + lc.count_values[j++];
+	  }
+       }
+
+      return new LineCounts(Arrays.copyOf(lines,n),Arrays.copyOf(counts,n));
+    }
+
+   @Override public int size()			{ return count_lines.length; }
+
+   @Override public int [] get(Object key) {
+      if (!(key instanceof Integer)) return null;
+      int idx = Arrays.binarySearch(count_lines,(Integer) key);
+      if (idx < 0) return null;
+      return new int [] { count_values[idx] };
+    }
+
+   @Override public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+   @Override public Set<Map.Entry<Integer,int []>> entrySet() {
+      return new AbstractSet<Map.Entry<Integer,int []>>() {
+	 @Override public int size()		{ return count_lines.length; }
+	 @Override public Iterator<Map.Entry<Integer,int []>> iterator() {
+	    return new CountIterator();
+	  }
+       };
+    }
+
+   private class CountIterator implements Iterator<Map.Entry<Integer,int []>> {
+
+      private int next_index;
+
+      CountIterator() {
+	 next_index = 0;
+       }
+
+      @Override public boolean hasNext()	{ return next_index < count_lines.length; }
+
+      @Override public Map.Entry<Integer,int []> next() {
+	 if (!hasNext()) throw new NoSuchElementException();
+	 int idx = next_index++;
+	 return new AbstractMap.SimpleImmutableEntry<>(count_lines[idx],new int [] { count_values[idx] });
+       }
+
+    }	// end of inner class CountIterator
+
+}	// end of inner class LineCounts
+
+
+
 
 }	// end of class BicexEvaluationContext
 
@@ -27,13 +27,18 @@ package edu.brown.cs.seedebb.bicex;
 
 import edu.brown.cs.seedebb.bicex.BicexConstants.BicexResult;
 import edu.brown.cs.bubbles.board.BoardLog;
+import edu.brown.cs.bubbles.board.BoardProperties;
 
 import edu.brown.cs.ivy.xml.IvyXml;
 
 import org.w3c.dom.Element;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 class BicexEvaluationResult implements BicexConstants, BicexResult
 {
@@ -46,13 +51,14 @@ class BicexEvaluationResult implements BicexConstants, BicexResult
 /********************************************************************************/
 
 private BicexExecution		for_execution;
-private ExitType		exit_type;
+private volatile ExitType	exit_type;
 private BicexEvaluationContext	root_context;
 private BicexBaseValue		exit_value;
-private Map<String,BicexBaseValue> previous_values;
+private BicexValueStore 	previous_values;
 private String			exit_message;
 private String			thread_id;
 private Map<String,BicexValue>	static_values;
+private Set<BicexEvaluationContext> changed_contexts;
 
 
 
@@ -70,8 +76,11 @@ BicexEvaluationResult(BicexExecution be)
    exit_value = null;
    exit_message = null;
    root_context = null;
-   previous_values = null;
+   BoardProperties bp = BoardProperties.getProperties("Bicex");
+   long budget = bp.getInt("Bicex.value.budget",BICEX_VALUE_BUDGET);
+   previous_values = new BicexValueStore(budget*1024*1024);
    static_values = null;
+   changed_contexts = new HashSet<>();
 }
 
 
@@ -83,7 +92,7 @@ BicexEvaluationResult(BicexExecution be)
 /*										*/
 /********************************************************************************/
 
-void update(Element xml)
+synchronized void update(Element xml)
 {
    if (xml == null) return;
 
@@ -101,14 +110,7 @@ void update(Element xml)
    if (val != null) exit_value = BicexValue.createBaseValue(val,knownvalues,previous_values);
 
    Element cctx = IvyXml.getChild(rxml,"CONTEXT");
-   // might want to update the context here rather than creating it from scratch
-   root_context = new BicexEvaluationContext(null,cctx,knownvalues,previous_values);
-   if (exit_value != null) {
-      if (exit_type == ExitType.RETURN)
-	 root_context.addValue("*RETURN*",exit_value);
-      else if (exit_type == ExitType.EXCEPTION)
-	 root_context.addValue("*THROWN*",exit_value);
-    }
+   setRootContext(new BicexEvaluationContext(null,cctx,knownvalues,previous_values));
 
    static_values = new HashMap<>();
    Element sxml = IvyXml.getChild(xml,"STATICS");
@@ -118,8 +120,62 @@ void update(Element xml)
       static_values.put(nm,cv);
     }
 
+   finishUpdate(IvyXml.getTextElement(ret,"STACK"),knownvalues);
+}
+
+
+
+/**
+ *	Update using a result that was decoded directly from the message
+ *	text rather than from its DOM.
+ **/
+
+synchronized void update(BicexResultDecoder dec)
+{
+   thread_id = dec.getThreadId();
+   exit_type = dec.getExitType();
+   exit_message = dec.getExitMessage();
+   exit_value = dec.getExitValue();
+   setRootContext(dec.getRootContext());
+   static_values = dec.getStaticValues();
+
+   finishUpdate(dec.getExitStack(),dec.getKnownValues());
+}
+
+
+
+/**
+ *	Install a new root context, reusing whatever is unchanged from the
+ *	previous result and recording which contexts actually changed.
+ *	The line index of each changed context is built at this point.
+ **/
+
+private void setRootContext(BicexEvaluationContext ctx)
+{
+   if (exit_value != null) {
+      if (exit_type == ExitType.RETURN)
+	 ctx.addValue("*RETURN*",exit_value);
+      else if (exit_type == ExitType.EXCEPTION)
+	 ctx.addValue("*THROWN*",exit_value);
+    }
+
+   Set<BicexEvaluationContext> chngs = new HashSet<>();
+   List<BicexValue> kept = new ArrayList<>();
+   root_context = ctx.reconcile(root_context,chngs,kept);
+   changed_contexts = chngs;
+
+   // values kept from the previous result must not hold on to its message
+   BicexBaseValue.detachSources(kept);
+
+   // build line indices (and hence line counts) here rather than in the UI
+   for (BicexEvaluationContext cctx : chngs) cctx.getLineIndex();
+}
+
+
+
+private void finishUpdate(String stk,Map<String,BicexBaseValue> knownvalues)
+{
    if (exit_type == ExitType.ERROR) {
-      String stk = IvyXml.getTextElement(ret,"STACK");
       if (stk != null) {
 	 String msg = exit_message;
 	 if (msg == null || msg.length() == 0) msg = stk;
@@ -128,16 +184,13 @@ void update(Element xml)
        }
     }
 
-   if (exit_type == ExitType.COMPILER_ERROR && previous_values != null)
-      previous_values.putAll(knownvalues);
-   else
-      previous_values = knownvalues;
+   previous_values.update(knownvalues,exit_type == ExitType.COMPILER_ERROR);
 }
 
 
 
 
-void reset()
+synchronized void reset()
 {
    exit_type = ExitType.PENDING;
 }
@@ -158,6 +211,10 @@ String getExitMessage() 			{ return exit_message; }
 
 BicexEvaluationContext getRootContext() 	{ return root_context; }
 
+BicexValueStore getPreviousValues()		{ return previous_values; }
+
+Set<BicexEvaluationContext> getChangedContexts() { return changed_contexts; }
+
 String getThreadForContext(BicexEvaluationContext ctx)
 {
    return thread_id;
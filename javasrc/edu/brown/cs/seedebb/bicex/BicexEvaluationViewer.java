@@ -106,6 +106,9 @@ private JTabbedPane		tab_pane;
 private transient BicexPanel    history_panel;
 private String			user_tab;
 private SwingEventListenerList<BicexPopupCallback> popup_listeners;
+private transient BicexUpdateScheduler update_scheduler;
+private transient Set<BicexPanel> stale_panels;
+private transient Set<BicexPanel> stale_times;
 
 private static boolean auto_add_editors = true;
 
@@ -134,12 +137,15 @@ BicexEvaluationViewer(BicexExecution be)
    viewer_panels = new ArrayList<>();
    graphics_panels = new HashMap<>();
    history_panel = null;
+   stale_panels = new HashSet<>();
+   stale_times = new HashSet<>();
 
    setupPanel();
 
    popup_listeners = new SwingEventListenerList<>(BicexPopupCallback.class);
 
-   be.addUpdateListener(this);
+   update_scheduler = new BicexUpdateScheduler(this);
+   be.addUpdateListener(update_scheduler);
 }
 
 
@@ -148,7 +154,8 @@ BicexEvaluationViewer(BicexExecution be)
 protected void localDispose()
 {
    if (for_execution != null) {
-      for_execution.removeUpdateListener(this);
+      for_execution.removeUpdateListener(update_scheduler);
+      update_scheduler.dispose();
       for_execution.remove();
       BicexFactory.getFactory().removeExecution(for_execution);
       for (BicexPanel pnl : viewer_panels) {
@@ -218,16 +225,8 @@ private BicexEvaluationContext findContext(BicexEvaluationContext ctx,String id,
    if (ctx == null) return null;
    if (ctx.getId().equals(id) || ctx.getMethod().equals(id)) {
       if (sline <= 0) return ctx;
-      BicexValue lnv = ctx.getValues().get("*LINE*");
-      List<Integer> times = lnv.getTimeChanges();
-      for (Integer t : times) {
-	 String xv = lnv.getStringValue(t+1);
-	 int line = Integer.parseInt(xv);
-	 if (line == 0) continue;
-	 if (line == sline) {
-	    return ctx;
-	  }
-       }
+      BicexLineIndex li = ctx.getLineIndex();
+      if (li != null && li.hasLine(sline)) return ctx;
     }
    if (ctx.getInnerContexts() != null) {
       for (BicexEvaluationContext cctx : ctx.getInnerContexts()) {
@@ -249,8 +248,11 @@ private BicexEvaluationContext findContext(BicexEvaluationContext ctx,String id,
 @Override public void evaluationUpdated(BicexRunner er)
 {
    BicexExecution ex = (BicexExecution) er;
+   BicexEvaluationContext prior = current_context;
    current_context = ex.getCurrentContext();
-   data_model.setContext(current_context);
+   if (prior != current_context || ex.isContextChanged(current_context)) {
+      data_model.setContext(current_context);
+    }
    
    BoardLog.logD("BICEX","Evaluation viewer context update: " + current_context); 
 
@@ -258,7 +260,8 @@ private BicexEvaluationContext findContext(BicexEvaluationContext ctx,String id,
    updateGraphicsPanels();
 
    for (BicexPanel bbl : viewer_panels) {
-      bbl.update();
+      if (isPanelVisible(bbl)) bbl.update();
+      else stale_panels.add(bbl);
     }
 
    String parnm = null;
@@ -351,7 +354,8 @@ private String getGraphicsPanelName(String name)
    if (t0 != t1) time_scroller.setValue((int) t1);
 
    for (BicexPanel bp : viewer_panels) {
-      bp.updateTime();
+      if (isPanelVisible(bp)) bp.updateTime();
+      else stale_times.add(bp);
     }
 
    updateInnerLabel();
@@ -378,16 +382,8 @@ private void updateInnerLabel()
    BicexEvaluationContext ctx = current_context;
    if (ctx == null) return;
 
-   while (ctx != null) {
-      if (ctx.getInnerContexts() == null) break;
-      BicexEvaluationContext nctx = null;
-      for (BicexEvaluationContext sctx : ctx.getInnerContexts()) {
-	 if (sctx.getStartTime() <= t0 && sctx.getEndTime() >= t0) {
-	    nctx = sctx;
-	    break;
-	  }
-       }
-      if (nctx == null) break;
+   for (BicexEvaluationContext nctx = ctx.getInnerContextAt(t0); nctx != null;
+      nctx = ctx.getInnerContextAt(t0)) {
       ctx = nctx;
     }
    inner_box.setContext(ctx);
@@ -602,8 +598,27 @@ private void addPanel(String id,BicexPanel pnl)
 
 
 private boolean removePanel(BicexPanel pnl)
+{
+   int i = findPanelTab(pnl);
+   if (i >= 0) {
+      String key = tab_pane.getTitleAt(i);
+      if (key != null && key.equals(user_tab)) return false;
+      tab_pane.remove(i);
+    }
+   viewer_panels.remove(pnl);
+   stale_panels.remove(pnl);
+   stale_times.remove(pnl);
+
+   return true;
+}
+
+
+
+private int findPanelTab(BicexPanel pnl)
 {
    Component cmp = pnl.getComponent();
+   if (cmp == null) return -1;
+
    for (int i = 0; i < tab_pane.getTabCount(); ++i) {
       Component c1 = tab_pane.getComponentAt(i);
       if (c1 instanceof JScrollPane) {
@@ -615,16 +630,44 @@ private boolean removePanel(BicexPanel pnl)
 	 Panel p1 = (Panel) sp.getComponent(0);
 	 c1 = p1.getComponent(0);
       }
-      if (c1 == cmp) {
-	 String key = tab_pane.getTitleAt(i);
-	 if (key != null && key.equals(user_tab)) return false;
-	 tab_pane.remove(i);
-	 break;
-       }
+      if (c1 == cmp) return i;
     }
-   viewer_panels.remove(pnl);
 
-   return true;
+   return -1;
+}
+
+
+
+/**
+ *	Panels in a tab that is not selected are not updated; they are
+ *	marked stale and brought up to date when their tab is selected.
+ **/
+
+private boolean isPanelVisible(BicexPanel pnl)
+{
+   int i = findPanelTab(pnl);
+   if (i < 0) return true;
+
+   return i == tab_pane.getSelectedIndex();
+}
+
+
+
+private void updateStalePanels()
+{
+   if (stale_panels.isEmpty() && stale_times.isEmpty()) return;
+
+   for (BicexPanel pnl : viewer_panels) {
+      if (!isPanelVisible(pnl)) continue;
+      if (stale_panels.remove(pnl)) {
+	 stale_times.remove(pnl);
+	 pnl.update();
+	 pnl.updateTime();
+       }
+      else if (stale_times.remove(pnl)) {
+	 pnl.updateTime();
+       }
+    }
 }
 
 
@@ -667,14 +710,7 @@ private void setStatus(ExitType sts)
 BicexEvaluationContext getContextForTime(BicexEvaluationContext ctx,long time)
 {
    if (ctx == null) return null;
-   if (ctx.getStartTime() > time || ctx.getEndTime() < time) return null;
-   if (ctx.getInnerContexts() == null) return ctx;
-
-   for (BicexEvaluationContext ictx : ctx.getInnerContexts()) {
-      BicexEvaluationContext xctx = getContextForTime(ictx,time);
-      if (xctx != null) return xctx;
-    }
-   return ctx;
+   return ctx.getDeepestContextAt(time);
 }
 
 
@@ -694,20 +730,7 @@ BicexEvaluationContext getContextForTime(long time)
 BicexEvaluationContext getContextForTime(BicexEvaluationContext ctx,long time,int lvl)
 {
    if (ctx == null) return null;
-   if (ctx.getStartTime() > time || ctx.getEndTime() < time) return null;
-   if (lvl == 0) return ctx;
-   if (ctx.getInnerContexts() == null) {
-      if (lvl < 0) return ctx;
-      return null;
-    }
-
-   for (BicexEvaluationContext ictx : ctx.getInnerContexts()) {
-      BicexEvaluationContext xctx = getContextForTime(ictx,time,lvl-1);
-      if (xctx != null) return xctx;
-    }
-
-   if (lvl < 0) return ctx;
-   return null;
+   return ctx.getContextAt(time,lvl);
 }
 
 
@@ -1109,6 +1132,7 @@ private final class TabChanged implements ChangeListener
       int sel = tab_pane.getSelectedIndex();
       String ttl = tab_pane.getTitleAt(sel);
       user_tab = ttl;
+      updateStalePanels();
     }
 }
 
@@ -28,6 +28,8 @@ import edu.brown.cs.seedebb.bicex.BicexConstants.BicexRunner;
 
 import edu.brown.cs.bubbles.board.BoardLog;
 import edu.brown.cs.bubbles.board.BoardMetrics;
+import edu.brown.cs.bubbles.board.BoardProperties;
+import edu.brown.cs.bubbles.board.BoardThreadPool;
 import edu.brown.cs.bubbles.buda.BudaBubble;
 import edu.brown.cs.bubbles.bump.BumpConstants.BumpLaunch;
 import edu.brown.cs.bubbles.bump.BumpConstants.BumpProcess;
@@ -45,8 +47,8 @@ import org.w3c.dom.Element;
 import java.io.File;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class BicexExecution implements BicexConstants, BicexRunner
@@ -72,7 +74,12 @@ private BicexOutputModel	output_model;
 private BicexGraphicsModel	graphics_model;
 private SwingEventListenerList<BicexEvaluationUpdated> update_listeners;
 private int		last_counter;
-private int		working_counter;
+private PendingResult	pending_result;
+private boolean 	result_worker;
+private boolean 	reset_pending;
+private int		dropped_results;
+private boolean 	lazy_values;
+private BicexStringTable string_table;
 private Set<File>	added_files;
 
 private static AtomicInteger id_counter = new AtomicInteger((int) (Math.random()*256000.0));
@@ -103,7 +110,13 @@ BicexExecution(BumpProcess bp) throws BicexException
    output_model = new BicexOutputModel();
    graphics_model = new BicexGraphicsModel();
    last_counter = 0;
-   working_counter = 0;
+   pending_result = null;
+   result_worker = false;
+   reset_pending = false;
+   dropped_results = 0;
+   BoardProperties props = BoardProperties.getProperties("Bicex");
+   lazy_values = props.getBoolean("Bicex.lazy.values");
+   string_table = new BicexStringTable();
    added_files = new HashSet<>();
 
    String threadid = null;
@@ -170,6 +183,37 @@ boolean isCurrentLine(long when)
 BicexEvaluationContext getCurrentContext()	{ return current_context; }
 
 
+/**
+ *	Return true if the given context or anything below it was changed
+ *	or replaced by the most recent result.
+ **/
+
+boolean isContextChanged(BicexEvaluationContext ctx)
+{
+   if (ctx == null) return true;
+   if (!isCurrentContext(ctx)) return true;
+
+   for (BicexEvaluationContext cctx : exec_result.getChangedContexts()) {
+      for (BicexEvaluationContext pctx = cctx; pctx != null; pctx = pctx.getParent()) {
+	 if (pctx == ctx) return true;
+       }
+    }
+
+   return false;
+}
+
+
+private boolean isCurrentContext(BicexEvaluationContext ctx)
+{
+   if (exec_result == null) return false;
+
+   BicexEvaluationContext root = ctx;
+   while (root.getParent() != null) root = root.getParent();
+
+   return root == exec_result.getRootContext();
+}
+
+
 
 
 /********************************************************************************/
@@ -246,78 +290,242 @@ void handleEditorAdded(BudaBubble bw)
 /*										*/
 /********************************************************************************/
 
+/**
+ *	Handle a result from SEEDE.  Results are queued and processed on a
+ *	worker thread; a result that is superseded by a newer one before the
+ *	worker gets to it is dropped without being decoded.
+ **/
+
 void handleResult(Element xml) throws BicexException
+{
+   if (xml == null) return;
+
+   queueResult(new PendingResult(IvyXml.getAttrInt(xml,"INDEX"),xml,null));
+}
+
+
+
+/**
+ *	Handle a result given as message text.	Only the top element is read
+ *	here; the text is decoded directly into the evaluation structures when
+ *	the result is processed, using the DOM only if that fails.
+ **/
+
+void handleResult(String text) throws BicexException
+{
+   if (text == null) return;
+
+   BicexResultDecoder dec = new BicexResultDecoder(text);
+   dec.setLazyValues(lazy_values);
+   dec.setStringTable(string_table);
+   if (!dec.begin()) {
+      handleResult(IvyXml.convertStringToXml(text));
+      return;
+    }
+
+   queueResult(new PendingResult(dec.getIndex(),null,dec));
+}
+
+
+
+private void queueResult(PendingResult pr)
 {
    synchronized (this) {
-      int idx = IvyXml.getAttrInt(xml, "INDEX");
-      if (idx < last_counter) return;
-      last_counter = idx;
-      while (working_counter > 0) {
+      if (pr.getIndex() < last_counter) {
+	 ++dropped_results;
+	 return;
+       }
+      last_counter = pr.getIndex();
+      if (pending_result != null) ++dropped_results;
+      pending_result = pr;
+      if (!startWorker()) return;
+    }
+
+   BoardThreadPool.start(new ResultProcessor());
+}
+
+
+
+private boolean startWorker()
+{
+   if (result_worker) return false;
+   result_worker = true;
+   return true;
+}
+
+
+
+private class ResultProcessor implements Runnable {
+
+   @Override public void run() {
+      for ( ; ; ) {
+	 PendingResult pr;
+	 boolean reset;
+	 int dropped;
+	 synchronized (BicexExecution.this) {
+	    pr = pending_result;
+	    pending_result = null;
+	    reset = reset_pending;
+	    reset_pending = false;
+	    if (pr == null && !reset) {
+	       result_worker = false;
+	       return;
+	     }
+	    dropped = dropped_results;
+	    dropped_results = 0;
+	  }
+	 if (reset) applyReset();
+	 if (pr == null) continue;
+	 long delay = System.currentTimeMillis() - pr.getQueueTime();
+	 BoardMetrics.noteCommand("BICEX","ResultQueue",pr.getIndex(),delay,dropped);
 	 try {
-	    wait();
+	    processResult(pr);
+	  }
+	 catch (BicexException e) {
+	    BoardLog.logE("BICEX","Problem restarting execution",e);
+	  }
+	 catch (Throwable t) {
+	    BoardLog.logE("BICEX","Problem processing execution result",t);
 	  }
-	 catch (InterruptedException e) { }
        }
-      if (idx < last_counter) return;
-      working_counter = idx;
     }
 
-   try {
+}	// end of inner class ResultProcessor
+
+
+
+private static class PendingResult {
+
+   private int result_index;
+   private Element result_xml;
+   private BicexResultDecoder result_decoder;
+   private long queue_time;
+
+   PendingResult(int idx,Element xml,BicexResultDecoder dec) {
+      result_index = idx;
+      result_xml = xml;
+      result_decoder = dec;
+      queue_time = System.currentTimeMillis();
+    }
+
+   int getIndex()				{ return result_index; }
+   Element getXml()				{ return result_xml; }
+   BicexResultDecoder getDecoder()		{ return result_decoder; }
+   long getQueueTime()				{ return queue_time; }
+
+}	// end of inner class PendingResult
+
+
+
+private void processResult(PendingResult pr) throws BicexException
+{
+   BicexResultDecoder dec = pr.getDecoder();
+   if (dec == null) {
+      Element xml = pr.getXml();
       if (IvyXml.getAttrBool(xml,"EMPTY")) {
-	 BoardMetrics.noteCommand("BICEX","EmptyResult");
-	 if (!auto_restart) startExecution();
+	 handleEmptyResult();
 	 return;
        }
       BoardLog.logD("BICEX","Received execution result from seede");
       BoardLog.logD("BICEX","Execution result: " + IvyXml.convertXmlToString(xml));
+      updateResult(xml);
+      return;
+    }
 
-      Element cnts = IvyXml.getChild(xml,"CONTENTS");
-      if (cnts == null) cnts = xml;
+   if (dec.isEmpty()) {
+      handleEmptyResult();
+      return;
+    }
+   BoardLog.logD("BICEX","Received execution result from seede");
+
+   boolean streamed = dec.decode(exec_result.getPreviousValues());
+   BoardMetrics.noteCommand("BICEX","ResultDecode",dec.getLength(),dec.getDecodeTime(),streamed);
+   BoardMetrics.noteCommand("BICEX","ResultValues",dec.getDecodedCount(),dec.getDeferredCount());
+   BoardMetrics.noteCommand("BICEX","ResultStrings",string_table.getStringCount(),
+	 string_table.getConstantCount(),string_table.getConstantHits());
+   if (!streamed) {
+      updateResult(IvyXml.convertStringToXml(dec.getText()));
+      return;
+    }
 
-      boolean errfg = IvyXml.getAttrBool(cnts,"ERROR");
-      boolean complete = IvyXml.getAttrBool(cnts,"COMPLETE");
+   boolean errfg = dec.getErrorFlag();
+   boolean complete = dec.isComplete();
+   BoardMetrics.noteCommand("BICEX","Result",errfg,complete,pr.getIndex(),
+	 dec.getTicks(),dec.getExecTime());
 
-      BoardMetrics.noteCommand("BICEX","Result",errfg,complete,last_counter,
-	    IvyXml.getAttrLong(cnts,"TICKS"),
-	    IvyXml.getAttrLong(cnts,"EXECTIME"));
+   exec_result.update(dec);
+   output_model.update(dec.getIOModel());
+   graphics_model.update(dec.getGraphics(),errfg,complete);
 
-      exec_result.update(cnts);
-      output_model.update(cnts);
-      graphics_model.update(cnts,errfg,complete);
+   finishResult(errfg);
+}
 
-      if (current_context == null) current_context = exec_result.getRootContext();
-      else {
-	 if (saved_context != null) {
-	    BicexEvaluationContext nctx = findMatchingContext(saved_context);
-	    if (nctx == null) {
-	       current_context = findMatchingContext(current_context);
-	     }
-	    else if (!nctx.getMethod().equals(saved_context.getMethod())) {
-	       if (!errfg)
-		  saved_context = null;
-	       current_context = nctx;
-	     }
-	    else current_context = nctx;
-	  }
-	 else {
-	    current_context = findMatchingContext(current_context);
-	  }
-       }
-      if (current_context == null) return;
-      current_time = current_context.getEndTime();
 
-      for (BicexEvaluationUpdated upd : update_listeners) {
-	 try {
-	    upd.evaluationUpdated(this);
+
+private void handleEmptyResult() throws BicexException
+{
+   BoardMetrics.noteCommand("BICEX","EmptyResult");
+   if (!auto_restart) startExecution();
+}
+
+
+
+private void updateResult(Element xml)
+{
+   if (xml == null) return;
+
+   Element cnts = IvyXml.getChild(xml,"CONTENTS");
+   if (cnts == null) cnts = xml;
+
+   boolean errfg = IvyXml.getAttrBool(cnts,"ERROR");
+   boolean complete = IvyXml.getAttrBool(cnts,"COMPLETE");
+
+   BoardMetrics.noteCommand("BICEX","Result",errfg,complete,last_counter,
+	 IvyXml.getAttrLong(cnts,"TICKS"),
+	 IvyXml.getAttrLong(cnts,"EXECTIME"));
+
+   exec_result.update(cnts);
+   output_model.update(cnts);
+   graphics_model.update(cnts,errfg,complete);
+
+   finishResult(errfg);
+}
+
+
+
+private void finishResult(boolean errfg)
+{
+   BicexValueStore vs = exec_result.getPreviousValues();
+   BoardMetrics.noteCommand("BICEX","ResultStore",vs.size(),vs.getEstimatedSize(),
+	 vs.getEvictedCount());
+
+   if (current_context == null) current_context = exec_result.getRootContext();
+   else {
+      if (saved_context != null) {
+	 BicexEvaluationContext nctx = findMatchingContext(saved_context);
+	 if (nctx == null) {
+	    current_context = findMatchingContext(current_context);
 	  }
-	 catch (Throwable t) {
-	    BoardLog.logE("BICEX","Problem updating execution",t);
+	 else if (!nctx.getMethod().equals(saved_context.getMethod())) {
+	    if (!errfg)
+	       saved_context = null;
+	    current_context = nctx;
 	  }
+	 else current_context = nctx;
+       }
+      else {
+	 current_context = findMatchingContext(current_context);
        }
     }
-   finally {
-      synchronized (this) {
-	 working_counter = 0;
+   if (current_context == null) return;
+   current_time = current_context.getEndTime();
+
+   for (BicexEvaluationUpdated upd : update_listeners) {
+      try {
+	 upd.evaluationUpdated(this);
+       }
+      catch (Throwable t) {
+	 BoardLog.logE("BICEX","Problem updating execution",t);
        }
     }
 }
@@ -325,11 +533,38 @@ void handleResult(Element xml) throws BicexException
 
 
 
+/**
+ *	Handle a reset from SEEDE.  The reset goes through the result queue so
+ *	that it is applied after any result that arrived before it and can not
+ *	be overwritten by one of them; a result still waiting is dropped.
+ **/
+
 void handleReset()
+{
+   synchronized (this) {
+      if (pending_result != null) {
+	 ++dropped_results;
+	 pending_result = null;
+       }
+      reset_pending = true;
+      if (!startWorker()) return;
+    }
+
+   BoardThreadPool.start(new ResultProcessor());
+}
+
+
+
+private void applyReset()
 {
    exec_result.reset();
    for (BicexEvaluationUpdated upd : update_listeners) {
-      upd.evaluationReset(this);
+      try {
+	 upd.evaluationReset(this);
+       }
+      catch (Throwable t) {
+	 BoardLog.logE("BICEX","Problem resetting execution",t);
+       }
     }
 }
 
@@ -366,6 +601,7 @@ private BicexEvaluationContext findMatchingContext(BicexEvaluationContext ctx)
 {
    if (exec_result == null) return null;
 
+   if (isCurrentContext(ctx)) return ctx;
    if (ctx.getParent() == null) return exec_result.getRootContext();
    BicexEvaluationContext pctx = findMatchingContext(ctx.getParent());
 
@@ -420,16 +656,10 @@ void setCurrentTime(long t)
       line_start_time = -1;
       line_end_time = -1;
       if (current_context != null) {
-	 BicexValue bv = current_context.getValues().get("*LINE*");
-	 if (bv != null) {
-	    List<Integer> times = bv.getTimeChanges();
-	    for (Integer t0 : times) {
-	       if (t0 <= current_time) line_start_time = t0;
-	       else {
-		  line_end_time = t0;
-		  break;
-		}
-	     }
+	 BicexLineIndex li = current_context.getLineIndex();
+	 if (li != null) {
+	    line_start_time = li.getLineStartTime(current_time);
+	    line_end_time = li.getLineEndTime(current_time);
 	  }
        }
     }
@@ -457,6 +687,21 @@ Element sendSeedeMessage(String cmd,CommandArgs args,String cnts)
 }
 
 
+/**
+ *	Send a message to SEEDE without blocking the caller; this should be
+ *	used from the Swing thread.
+ **/
+
+CompletableFuture<Element> sendSeedeMessageAsync(String cmd,CommandArgs args,String cnts)
+{
+   if (args == null) args = new CommandArgs();
+   args.put("PROJECT",project_name);
+
+   BicexFactory bf = BicexFactory.getFactory();
+   return bf.sendSeedeMessageAsync(exec_id,cmd,args,cnts,BICEX_SEEDE_TIMEOUT);
+}
+
+
 
 
 }	// end of class BicexExecution
@@ -69,6 +69,7 @@ import edu.brown.cs.ivy.mint.MintControl;
 import edu.brown.cs.ivy.mint.MintDefaultReply;
 import edu.brown.cs.ivy.mint.MintHandler;
 import edu.brown.cs.ivy.mint.MintMessage;
+import edu.brown.cs.ivy.mint.MintReply;
 import edu.brown.cs.ivy.xml.IvyXml;
 import edu.brown.cs.ivy.xml.IvyXmlWriter;
 
@@ -93,6 +94,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 
 public final class BicexFactory implements BicexConstants, MintConstants
@@ -515,27 +518,13 @@ Element sendSeedeMessage(String id,String cmd,CommandArgs args,String cnts)
    MintControl mc = bs.getMintControl();
 
    MintDefaultReply rply = new MintDefaultReply();
-   IvyXmlWriter xw = new IvyXmlWriter();
-   xw.begin("SEEDE");
-   xw.field("DO",cmd);
-   xw.field("SID",id);
-   if (args != null) {
-      for (Map.Entry<String,Object> ent : args.entrySet()) {
-	 xw.field(ent.getKey(),ent.getValue());
-       }
-    }
-   if (cnts != null) {
-      xw.xmlText(cnts);
-    }
-   xw.end("SEEDE");
-   String msg = xw.toString();
-   xw.close();
+   String msg = buildSeedeMessage(id,cmd,args,cnts);
 
    BoardLog.logD("BICEX","Send to SEEDE: " + msg);
 
    mc.send(msg,rply,MINT_MSG_FIRST_NON_NULL);
 
-   Element rslt = rply.waitForXml(30000);
+   Element rslt = rply.waitForXml(BICEX_SEEDE_TIMEOUT);
 
    BoardLog.logD("BICEX","Reply from SEEDE: " + IvyXml.convertXmlToString(rslt));
    if (rslt == null && (cmd.equals("START") || cmd.equals("BEGIN"))) {
@@ -557,6 +546,86 @@ Element sendSeedeMessage(String id,String cmd,CommandArgs args,String cnts)
 
 
 
+/**
+ *	Send a message to SEEDE without waiting for the reply.  Any number of
+ *	these can be outstanding at once.  The future completes with the reply
+ *	(null if there was none), or exceptionally if no reply arrives within
+ *	the given time (in ms; 0 for no limit).  Cancelling the future just
+ *	causes the eventual reply to be ignored.
+ **/
+
+CompletableFuture<Element> sendSeedeMessageAsync(String id,String cmd,CommandArgs args,
+      String cnts,long timeout)
+{
+   BoardSetup bs = BoardSetup.getSetup();
+   MintControl mc = bs.getMintControl();
+
+   String msg = buildSeedeMessage(id,cmd,args,cnts);
+   AsyncReply rply = new AsyncReply(cmd);
+
+   BoardLog.logD("BICEX","Send async to SEEDE: " + msg);
+
+   mc.send(msg,rply,MINT_MSG_FIRST_NON_NULL);
+
+   CompletableFuture<Element> rslt = rply.getFuture();
+   if (timeout > 0) rslt = rslt.orTimeout(timeout,TimeUnit.MILLISECONDS);
+
+   return rslt;
+}
+
+
+
+private String buildSeedeMessage(String id,String cmd,CommandArgs args,String cnts)
+{
+   IvyXmlWriter xw = new IvyXmlWriter();
+   xw.begin("SEEDE");
+   xw.field("DO",cmd);
+   xw.field("SID",id);
+   if (args != null) {
+      for (Map.Entry<String,Object> ent : args.entrySet()) {
+	 xw.field(ent.getKey(),ent.getValue());
+       }
+    }
+   if (cnts != null) {
+      xw.xmlText(cnts);
+    }
+   xw.end("SEEDE");
+   String msg = xw.toString();
+   xw.close();
+
+   return msg;
+}
+
+
+
+private static final class AsyncReply implements MintReply {
+
+   private String for_command;
+   private CompletableFuture<Element> reply_future;
+
+   AsyncReply(String cmd) {
+      for_command = cmd;
+      reply_future = new CompletableFuture<>();
+    }
+
+   CompletableFuture<Element> getFuture()		{ return reply_future; }
+
+   @Override public void handleReply(MintMessage msg,MintMessage rply) {
+      if (rply == null) return;
+      Element rslt = rply.getXml();
+      BoardLog.logD("BICEX","Async reply from SEEDE for " + for_command + ": " +
+	    IvyXml.convertXmlToString(rslt));
+      reply_future.complete(rslt);
+    }
+
+   @Override public void handleReplyDone(MintMessage msg) {
+      reply_future.complete(null);
+    }
+
+}	// end of inner class AsyncReply
+
+
+
 
 private void startSeede()
 {
@@ -929,7 +998,6 @@ private final class UpdateHandler implements MintHandler {
    @Override public void receive(MintMessage msg,MintArguments args) {
       String type = args.getArgument(0);
       String id = args.getArgument(1);
-      Element xml = msg.getXml();
       BicexExecution bex = exec_map.get(id);
       if (bex == null) return;
       String rslt = null;
@@ -937,7 +1005,7 @@ private final class UpdateHandler implements MintHandler {
 	 switch (type) {
 	    case "EXEC" :
 	       BoardMetrics.noteCommand("BICEX","ExecReturned");
-	       bex.handleResult(msg.getXml());
+	       bex.handleResult(msg.getText());
 	       break;
 	    case "RESET" :
 	       BoardMetrics.noteCommand("BICEX","ExecReset");
@@ -945,11 +1013,11 @@ private final class UpdateHandler implements MintHandler {
 	       break;
 	    case "INPUT" :
 	       BoardMetrics.noteCommand("BICEX","InputRequest");
-	       rslt = bex.handleInput(IvyXml.getAttrString(xml,"FILE"));
+	       rslt = bex.handleInput(IvyXml.getAttrString(msg.getXml(),"FILE"));
 	       break;
 	    case "INITIALVALUE" :
 	       BoardMetrics.noteCommand("BICEX","InitialValueRequest");
-	       rslt = bex.handleInitialValue(IvyXml.getAttrString(xml,"WHAT"));
+	       rslt = bex.handleInitialValue(IvyXml.getAttrString(msg.getXml(),"WHAT"));
 	       break;
 	    default :
 	       BoardLog.logE("BICEX","Unknown command " + type + " from Seede");
@@ -1028,14 +1096,13 @@ private static final class BicexContextListener implements BaleContextListener {
        }
       if (val == null) return null;
 
-      List<Integer> times = val.getTimeChanges();
+      int ntimes = val.getTimeChangeCount();
       StringBuffer buf = new StringBuffer();
       buf.append("H: ");
       int idx = 0;
-      for (int i = times.size()-1; i >= 0; --i) {
-	 int tv = times.get(i);
-	 if (tv > bex.getCurrentTime()) continue;
-	 if (tv == 0 && vnm != null && vnm.contains("@") && times.size() > 1) continue;
+      for (int i = val.findTimeChange(bex.getCurrentTime()); i >= 0; --i) {
+	 long tv = val.getTimeChange(i);
+	 if (tv == 0 && vnm != null && vnm.contains("@") && ntimes > 1) continue;
 	 String bv = val.getStringValue(tv+1);
 	 if (idx++ > 0) buf.append(" &larr; ");
 	 buf.append(bv);
@@ -41,14 +41,17 @@ import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -71,6 +74,11 @@ private Map<String,GraphicsData> window_map;
 private boolean have_complete;
 
 
+private static final int KIND_DRAW = 1;
+private static final int KIND_FIELD = 2;
+private static final int KIND_INDEX = 3;
+
+
 enum FieldType {
    NONE, FG, BG, PAINT, STROKE, COMPOSITE, HINTS, FONT, CLIP, TRANSFORM
 }
@@ -86,6 +94,9 @@ enum CommandType {
    CONSTRAIN, CLIP_RECT, SET_CLIP, CLIP,
 }
 
+private static final FieldType [] FIELD_TYPES = FieldType.values();
+private static final CommandType [] COMMAND_TYPES = CommandType.values();
+
 
 /********************************************************************************/
 /*										*/
@@ -127,10 +138,17 @@ List<DisplayModel> getActiveModels()
 /********************************************************************************/
 
 void update(Element xml,boolean errfg,boolean complete)
+{
+   update(IvyXml.children(xml,"GRAPHICS"),errfg,complete);
+}
+
+
+
+void update(Iterable<Element> graphics,boolean errfg,boolean complete)
 {
    Set<String> done = new HashSet<String>();
 
-   for (Element gxml : IvyXml.children(xml,"GRAPHICS")) {
+   for (Element gxml : graphics) {
       String name = IvyXml.getAttrString(gxml,"ID");
       GraphicsData gmodel = window_map.get(name);
       if (gmodel == null) {
@@ -165,9 +183,16 @@ static class GraphicsData implements DisplayModel {
    private String window_name;
    private int window_width;
    private int wirdow_height;
-   private List<GraphicsCommand> window_commands;
+   private CommandBuffer window_commands;
    private Rectangle base_clip;
    private Map<Integer,Graphics2D> active_graphics;
+   private BufferedImage replay_image;
+   private int replay_position;
+   private double replay_scale_x;
+   private double replay_scale_y;
+   private AffineTransform base_transform;
+   private Map<Integer,Checkpoint> checkpoint_cache;
+   private long cache_size;
 
    GraphicsData() {
       window_name = null;
@@ -175,6 +200,13 @@ static class GraphicsData implements DisplayModel {
       wirdow_height = 0;
       window_commands = null;
       active_graphics = null;
+      replay_image = null;
+      replay_position = -1;
+      replay_scale_x = 1;
+      replay_scale_y = 1;
+      base_transform = null;
+      checkpoint_cache = new LinkedHashMap<>(16,0.75f,true);
+      cache_size = 0;
     }
 
    @Override public int getWidth()		{ return window_width; }
@@ -186,38 +218,364 @@ static class GraphicsData implements DisplayModel {
       return window_name.startsWith("MAIN_");
     }
 
-   @Override public void paintToTime(Graphics2D g0,long when) {
+   /**
+    *	Paint the commands up to the given time.  When the commands are in
+    *	time order, they are replayed into an image starting from the
+    *	nearest checkpoint at or before the target.  Checkpoints are taken
+    *	every BICEX_GRAPHICS_CHECKPOINT commands and kept in an LRU cache
+    *	limited to BICEX_GRAPHICS_CACHE_SIZE bytes.  The image is kept at
+    *	the device scale of the display and starts with the state of g0.
+    **/
+
+   @Override public synchronized void paintToTime(Graphics2D g0,long when) {
       if (!useTime()) when = -1;
+      if (window_commands == null) return;
+
+      if (!window_commands.isTimeSorted() || window_width <= 0 || wirdow_height <= 0) {
+	 paintCommands(g0,when);
+	 return;
+       }
+
+      AffineTransform dt = g0.getDeviceConfiguration().getDefaultTransform();
+      if (dt.getScaleX() != replay_scale_x || dt.getScaleY() != replay_scale_y) {
+	 clearReplay();
+	 replay_scale_x = dt.getScaleX();
+	 replay_scale_y = dt.getScaleY();
+       }
+
+      BufferedImage img = replayTo(findPosition(when),g0);
+      g0.drawImage(img,0,0,window_width,wirdow_height,null);
+    }
+
+   private void paintCommands(Graphics2D g0,long when) {
+      clearReplay();
+      base_transform = null;
       active_graphics = new HashMap<>();
       active_graphics.put(0,g0);
-   
-      Graphics2D g = g0;
-      base_clip = g.getClipBounds();
-      for (GraphicsCommand gc : window_commands) {
-         g = gc.getGraphics(g0,this);
-         if (when < 0 || gc.getTime() <= when) {
-            gc.paint(g,this);
-          }
+
+      base_clip = g0.getClipBounds();
+      for (int i = 0; i < window_commands.getCount(); ++i) {
+	 Graphics2D g = getCommandGraphics(i,g0);
+	 if (when < 0 || window_commands.getTime(i) <= when) {
+	    paintCommand(i,g);
+	  }
+       }
+      active_graphics = null;
+    }
+
+   private int findPosition(long when) {
+      int hi = window_commands.getCount();
+      if (when < 0) return hi;
+
+      int lo = 0;
+      while (lo < hi) {
+	 int mid = (lo+hi) >>> 1;
+	 if (window_commands.getTime(mid) <= when) lo = mid+1;
+	 else hi = mid;
+       }
+      return lo;
+    }
+
+   private BufferedImage replayTo(int pos,Graphics2D g0) {
+      Checkpoint best = null;
+      for (int k = pos / BICEX_GRAPHICS_CHECKPOINT; k > 0 && best == null; --k) {
+	 best = checkpoint_cache.get(k*BICEX_GRAPHICS_CHECKPOINT);
+       }
+      int start = (best == null ? 0 : best.getPosition());
+
+      if (replay_image == null || replay_position < start || replay_position > pos) {
+	 restoreCheckpoint(best,g0);
+       }
+
+      while (replay_position < pos) {
+	 Graphics2D g = getCommandGraphics(replay_position,active_graphics.get(0));
+	 paintCommand(replay_position,g);
+	 ++replay_position;
+	 if (replay_position % BICEX_GRAPHICS_CHECKPOINT == 0 &&
+	       !checkpoint_cache.containsKey(replay_position)) {
+	    saveCheckpoint();
+	  }
        }
+
+      return replay_image;
     }
 
-   void update(Element xml) {
+   private void restoreCheckpoint(Checkpoint cp,Graphics2D g0) {
+      disposeGraphics();
+      int w = (int) Math.ceil(window_width * replay_scale_x);
+      int h = (int) Math.ceil(wirdow_height * replay_scale_y);
+      replay_image = new BufferedImage(w,h,BufferedImage.TYPE_INT_ARGB);
+      base_clip = new Rectangle(0,0,window_width,wirdow_height);
+      base_transform = AffineTransform.getScaleInstance(replay_scale_x,replay_scale_y);
+      active_graphics = new HashMap<>();
+      if (cp == null) {
+	 Graphics2D g = replay_image.createGraphics();
+	 new GraphicsState(g0).apply(g);
+	 g.setTransform(base_transform);
+	 g.setClip(base_clip);
+	 active_graphics.put(0,g);
+	 replay_position = 0;
+       }
+      else {
+	 replay_image.setData(cp.getImage().getRaster());
+	 for (Map.Entry<Integer,GraphicsState> ent : cp.getStates().entrySet()) {
+	    Graphics2D g = replay_image.createGraphics();
+	    ent.getValue().apply(g);
+	    active_graphics.put(ent.getKey(),g);
+	  }
+	 replay_position = cp.getPosition();
+       }
+    }
+
+   private void saveCheckpoint() {
+      int w = replay_image.getWidth();
+      int h = replay_image.getHeight();
+      long sz = 4L * w * h;
+      if (sz > BICEX_GRAPHICS_CACHE_SIZE) return;
+
+      BufferedImage img = new BufferedImage(w,h,BufferedImage.TYPE_INT_ARGB);
+      img.setData(replay_image.getRaster());
+      Map<Integer,GraphicsState> states = new HashMap<>();
+      for (Map.Entry<Integer,Graphics2D> ent : active_graphics.entrySet()) {
+	 if (ent.getValue() == null) continue;
+	 states.put(ent.getKey(),new GraphicsState(ent.getValue()));
+       }
+
+      for (Iterator<Checkpoint> it = checkpoint_cache.values().iterator();
+	    it.hasNext() && cache_size + sz > BICEX_GRAPHICS_CACHE_SIZE; ) {
+	 it.next();
+	 it.remove();
+	 cache_size -= sz;
+       }
+      checkpoint_cache.put(replay_position,new Checkpoint(replay_position,img,states));
+      cache_size += sz;
+    }
+
+   private void clearReplay() {
+      disposeGraphics();
+      active_graphics = null;
+      replay_image = null;
+      replay_position = -1;
+      checkpoint_cache.clear();
+      cache_size = 0;
+    }
+
+   private void disposeGraphics() {
+      if (active_graphics == null || replay_image == null) return;
+      for (Graphics2D g : active_graphics.values()) {
+	 if (g != null) g.dispose();
+       }
+    }
+
+   synchronized void update(Element xml) {
+      clearReplay();
       window_name = IvyXml.getAttrString(xml,"ID");
       window_width = IvyXml.getAttrInt(xml,"WIDTH");
       wirdow_height = IvyXml.getAttrInt(xml,"HEIGHT");
-      window_commands = new ArrayList<>();
+      CommandBuffer cb = new CommandBuffer();
       for (Element ce : IvyXml.children(xml)) {
-	 GraphicsCommand cmd = null;
-	 if (IvyXml.isElement(ce,"DRAW")) {
-	    cmd = new DrawCommand(ce);
-	  }
-	 else if (IvyXml.isElement(ce,"FIELD")) {
-	    cmd = new FieldCommand(ce);
-	  }
-	 else if (IvyXml.isElement(ce,"INDEX")) {
-	    cmd = new IndexCommand(ce);
-	  }
-	 if (cmd != null) window_commands.add(cmd);
+	 if (IvyXml.isElement(ce,"DRAW")) cb.addDraw(ce);
+	 else if (IvyXml.isElement(ce,"FIELD")) cb.addField(ce);
+	 else if (IvyXml.isElement(ce,"INDEX")) cb.addIndex(ce);
+       }
+      cb.finish();
+      window_commands = cb;
+    }
+
+   private Graphics2D getCommandGraphics(int idx,Graphics2D g0) {
+      if (window_commands.getKind(idx) != KIND_INDEX) return g0;
+      return getGraphicsForIndex(window_commands.getInt(idx,0),g0);
+    }
+
+   private void paintCommand(int idx,Graphics2D g) {
+      switch (window_commands.getKind(idx)) {
+	 case KIND_DRAW :
+	    paintDraw(idx,g);
+	    break;
+	 case KIND_FIELD :
+	    paintField(idx,g);
+	    break;
+	 default :
+	    break;
+       }
+    }
+
+   private void paintDraw(int idx,Graphics2D g) {
+      CommandBuffer cb = window_commands;
+      switch (cb.getDrawType(idx)) {
+	 case CLEAR_RECT :
+	    g.clearRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    break;
+	 case COPY_AREA :
+	    g.copyArea(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3),
+		  cb.getInt(idx,4),cb.getInt(idx,5));
+	    break;
+	 case DRAW :
+	    g.draw((Shape) cb.getObject(idx,0));
+	    break;
+	 case DRAW_ARC :
+	    g.drawArc(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3),
+		  cb.getInt(idx,4),cb.getInt(idx,5));
+	    break;
+	 case DRAW_OVAL :
+	    g.drawOval(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    break;
+	 case DRAW_LINE :
+	    g.drawLine(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    break;
+	 case DRAW_RECT :
+	    g.drawRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    break;
+	 case DRAW_3D_RECT :
+	    g.draw3DRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3),
+		  cb.getBoolean(idx,4));
+	    break;
+	 case DRAW_ROUND_RECT :
+	    g.drawRoundRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3),
+		  cb.getInt(idx,4),cb.getInt(idx,5));
+	    break;
+	 case DRAW_STRING :
+	    BoardLog.logD("BICEX","STRING " + cb.getString(idx,0)  + " " + cb.getFloat(idx,1) + " " +
+		  cb.getFloat(idx,2));
+	    g.drawString(cb.getString(idx,0),cb.getFloat(idx,1),cb.getFloat(idx,2));
+	    break;
+	 case FILL :
+	    g.fill((Shape) cb.getObject(idx,0));
+	    break;
+	 case FILL_ARC :
+	    g.fillArc(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3),
+		  cb.getInt(idx,4),cb.getInt(idx,5));
+	    break;
+	 case FILL_OVAL :
+	    g.fillOval(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    break;
+	 case FILL_RECT :
+	    g.fillRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    break;
+	 case FILL_ROUND_RECT :
+	    g.fillRoundRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3),
+		  cb.getInt(idx,4),cb.getInt(idx,5));
+	    break;
+	 case FILL_3D_RECT :
+	    g.fill3DRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3),
+		  cb.getBoolean(idx,4));
+	    break;
+
+	 case DRAW_GLYPH_VECTOR :
+	 case DRAW_IMAGE :
+	 case DRAW_POLYGON :
+	 case DRAW_POLYLINE :
+	 case DRAW_RENDERABLE_IMAGE :
+	 case DRAW_RENDERED_IMAGE :
+	 case FILL_POLYGON :
+	 case NONE :
+	    break;
+
+	 case ROTATE :
+	    if (cb.getArgCount(idx) == 1) {
+	       g.rotate(cb.getDouble(idx,0));
+	     }
+	    else {
+	       g.rotate(cb.getDouble(idx,0),cb.getDouble(idx,1),cb.getDouble(idx,2));
+	     }
+	    break;
+	 case SCALE :
+	    g.scale(cb.getDouble(idx,0),cb.getDouble(idx,1));
+	    break;
+	 case SHEAR :
+	    g.shear(cb.getDouble(idx,0),cb.getDouble(idx,1));
+	    break;
+	 case TRANSFORM :
+	    g.transform((AffineTransform) cb.getObject(idx,0));
+	    BoardLog.logD("BIXEX","RESULT " + g.getTransform());
+	    break;
+	 case TRANSLATE :
+	    g.translate(cb.getDouble(idx,0),cb.getDouble(idx,1));
+	    break;
+	 case CONSTRAIN :
+	    // want to do this at the top level using actual bounds for this display
+	    try {
+	       Class<?> clz = g.getClass();
+	       Method mthd = clz.getMethod("constrain", int.class,int.class,int.class,int.class);
+	       mthd.invoke(g, cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    }
+	    catch (Throwable t) {
+	       System.err.println("CHECK: " + t);
+	    }
+	    break;
+	 case GET_TRANSFORM :
+	 case SET_TRANSFORM :
+	    break;
+
+	 case CLIP_RECT :
+	    g.clipRect(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	    break;
+	 case CLIP :
+	    g.clip((Shape) cb.getObject(idx,0));
+	    break;
+	 case SET_CLIP :
+	    if (cb.getArgCount(idx) == 1) {
+	       g.setClip((Shape) cb.getObject(idx,0));
+	     }
+	    else {
+	       g.setClip(cb.getInt(idx,0),cb.getInt(idx,1),cb.getInt(idx,2),cb.getInt(idx,3));
+	     }
+	    break;
+       }
+    }
+
+   private void paintField(int idx,Graphics2D g) {
+      CommandBuffer cb = window_commands;
+      Object value = cb.getObject(idx,0);
+      if (value == null) return;
+
+      switch (cb.getFieldType(idx)) {
+	 case PAINT :
+	    g.setPaint((Paint) value);
+	    break;
+	 case FG :
+	    g.setColor((Color) value);
+	    break;
+	 case BG :
+	    g.setBackground((Color) value);
+	    break;
+	 case CLIP :
+	    Shape r = (Shape) value;
+	    Shape r1 = getBaseClip();
+	    Shape r2 = g.getTransform().createTransformedShape(r1);
+	    try {
+	       r1 = g.getTransform().createInverse().createTransformedShape(r1);
+	     }
+	    catch (Throwable t) { }
+	    BoardLog.logD("BICEX","CLIPVALUE " + r1.getBounds() + " " + r2.getBounds() + " " + r +
+		  " " + g.getClip());
+	    // g.setClip(r1);
+	    // g.clip(r);
+	    // g.setClip(r);
+	    break;
+	 case TRANSFORM :
+	    AffineTransform nt = (AffineTransform) value;
+	    if (base_transform != null) {
+	       // keep the scale of the replay image
+	       nt = new AffineTransform(base_transform);
+	       nt.concatenate((AffineTransform) value);
+	     }
+	    BoardLog.logD("BICEX","TRANSFORM " + g.getTransform() + " " + value);
+	    g.setTransform(nt);
+	    break;
+	 case FONT :
+	    g.setFont((Font) value);
+	    break;
+	 case COMPOSITE :
+	    g.setComposite((Composite) value);
+	    break;
+	 case STROKE :
+	    g.setStroke((Stroke) value);
+	    break;
+	 case HINTS :
+	    break;
+	 case NONE :
+	    break;
        }
     }
 
@@ -231,394 +589,337 @@ static class GraphicsData implements DisplayModel {
       return g1;
     }
 
-}
+}	// end of inner class GraphicsData
+
 
 
 /********************************************************************************/
 /*										*/
-/*	Executable graphics command						*/
+/*	Replay checkpoints							*/
 /*										*/
 /********************************************************************************/
 
-abstract static class GraphicsCommand {
+private static class Checkpoint {
 
-   private long command_time;
+   private int command_position;
+   private BufferedImage checkpoint_image;
+   private Map<Integer,GraphicsState> graphics_states;
 
-   protected GraphicsCommand(Element xml) {
-      command_time = IvyXml.getAttrLong(xml,"TIME");
+   Checkpoint(int pos,BufferedImage img,Map<Integer,GraphicsState> states) {
+      command_position = pos;
+      checkpoint_image = img;
+      graphics_states = states;
     }
 
-   long getTime()				{ return command_time; }
-
-   void  paint(Graphics2D g,GraphicsData gd)	{ }
+   int getPosition()				{ return command_position; }
+   BufferedImage getImage()			{ return checkpoint_image; }
+   Map<Integer,GraphicsState> getStates()	{ return graphics_states; }
 
-   Graphics2D getGraphics(Graphics2D g,GraphicsData gd) 	{ return g; }
+}	// end of inner class Checkpoint
 
-}	// end of inner class GraphicsCommand
 
 
+private static class GraphicsState {
 
-static class DrawCommand extends GraphicsCommand {
+   private AffineTransform graphics_transform;
+   private Paint graphics_paint;
+   private Color graphics_color;
+   private Color graphics_background;
+   private Font graphics_font;
+   private Stroke graphics_stroke;
+   private Composite graphics_composite;
+   private RenderingHints graphics_hints;
+   private Shape graphics_clip;
 
-   private CommandType draw_type;
-   private List<Object> command_args;
-
-   DrawCommand(Element xml) {
-      super(xml);
-      draw_type = IvyXml.getAttrEnum(xml,"TYPE",CommandType.NONE);
-      command_args = new ArrayList<>();
-      for (Element ae : IvyXml.children(xml,"ARG")) {
-	 Object o = decodeArg(ae);
-	 command_args.add(o);
-       }
+   GraphicsState(Graphics2D g) {
+      graphics_transform = g.getTransform();
+      graphics_paint = g.getPaint();
+      graphics_color = g.getColor();
+      graphics_background = g.getBackground();
+      graphics_font = g.getFont();
+      graphics_stroke = g.getStroke();
+      graphics_composite = g.getComposite();
+      graphics_hints = (RenderingHints) g.getRenderingHints().clone();
+      graphics_clip = g.getClip();
     }
 
-   @Override void paint(Graphics2D g,GraphicsData gd) {
-      BoardLog.logD("BICEX","DRAW " + draw_type + " " + g.getClipBounds());
-      switch (draw_type) {
-         case CLEAR_RECT :
-            g.clearRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            break;
-         case COPY_AREA :
-            g.copyArea(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3),
-        	  getIntArg(4),getIntArg(5));
-            break;
-         case DRAW :
-            g.draw((Shape) command_args.get(0));
-            break;
-         case DRAW_ARC :
-            g.drawArc(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3),
-        	  getIntArg(4),getIntArg(5));
-            break;
-         case DRAW_OVAL :
-            g.drawOval(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            break;
-         case DRAW_LINE :
-            g.drawLine(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            break;
-         case DRAW_RECT :
-            g.drawRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            break;
-         case DRAW_3D_RECT :
-            g.draw3DRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3),
-        	  getBooleanArg(4));
-            break;
-         case DRAW_ROUND_RECT :
-            g.drawRoundRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3),
-        	  getIntArg(4),getIntArg(5));
-            break;
-         case DRAW_STRING :
-            BoardLog.logD("BICEX","STRING " + getStringArg(0)  + " " + getFloatArg(1) + " " +
-                  getFloatArg(2));
-            g.drawString(getStringArg(0),getFloatArg(1),getFloatArg(2));
-            break;
-         case FILL :
-            g.fill((Shape) command_args.get(0));
-            break;
-         case FILL_ARC :
-            g.fillArc(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3),
-        	  getIntArg(4),getIntArg(5));
-            break;
-         case FILL_OVAL :
-            g.fillOval(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            break;
-         case FILL_RECT :
-            g.fillRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            break;
-         case FILL_ROUND_RECT :
-            g.fillRoundRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3),
-        	  getIntArg(4),getIntArg(5));
-            break;
-         case FILL_3D_RECT :
-            g.fill3DRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3),
-        	  getBooleanArg(4));
-            break;
-   
-         case DRAW_GLYPH_VECTOR :
-         case DRAW_IMAGE :
-         case DRAW_POLYGON :
-         case DRAW_POLYLINE :
-         case DRAW_RENDERABLE_IMAGE :
-         case DRAW_RENDERED_IMAGE :
-         case FILL_POLYGON :
-         case NONE :
-            break;
-   
-         case ROTATE :
-            if (command_args.size() == 1) {
-               g.rotate(getDoubleArg(0));
-             }
-            else {
-               g.rotate(getDoubleArg(0),getDoubleArg(1),getDoubleArg(2));
-             }
-            break;
-         case SCALE :
-            g.scale(getDoubleArg(0),getDoubleArg(1));
-            break;
-         case SHEAR :
-            g.shear(getDoubleArg(0),getDoubleArg(1));
-            break;
-         case TRANSFORM :
-            g.transform((AffineTransform) command_args.get(0));
-            BoardLog.logD("BIXEX","RESULT " + g.getTransform());
-            break;
-         case TRANSLATE :
-            g.translate(getDoubleArg(0),getDoubleArg(1));
-            break;
-         case CONSTRAIN :
-            // want to do this at the top level using actual bounds for this display
-            try {
-               Class<?> clz = g.getClass();
-               Method mthd = clz.getMethod("constrain", int.class,int.class,int.class,int.class);
-               mthd.invoke(g, getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            }
-            catch (Throwable t) {
-               System.err.println("CHECK: " + t);
-            }
-            break;
-         case GET_TRANSFORM :
-         case SET_TRANSFORM :
-            break;
-        
-         case CLIP_RECT :
-            g.clipRect(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-            break;
-         case CLIP :
-            g.clip((Shape) command_args.get(0));
-            break;
-         case SET_CLIP :
-            if (command_args.size() == 1) {
-               g.setClip((Shape) command_args.get(0));
-             }
-            else {
-               g.setClip(getIntArg(0),getIntArg(1),getIntArg(2),getIntArg(3));
-             }
-            break;
-       }
+   void apply(Graphics2D g) {
+      g.setRenderingHints(graphics_hints);
+      g.setTransform(graphics_transform);
+      g.setColor(graphics_color);
+      g.setPaint(graphics_paint);
+      g.setBackground(graphics_background);
+      g.setFont(graphics_font);
+      g.setStroke(graphics_stroke);
+      g.setComposite(graphics_composite);
+      g.setClip(graphics_clip);
     }
 
-   private Object decodeArg(Element xml) {
-      switch (IvyXml.getAttrString(xml,"TYPE")) {
-         case "int" :
-            return Integer.valueOf(IvyXml.getAttrInt(xml,"VALUE",0));
-         case "boolean" :
-            return Boolean.valueOf(IvyXml.getAttrBool(xml,"VALUE"));
-         case "float" :
-            return Float.valueOf(IvyXml.getAttrFloat(xml,"VALUE",0));
-         case "double" :
-            return Double.valueOf(IvyXml.getAttrDouble(xml,"VALUE",0));
-         case "byte[]" :
-            break;
-         case "char[]" :
-            break;
-         case "java.awt.Image" :
-            break;
-         case "java.awt.ImageObserver" :
-            break;
-         case "int[]" :
-            break;
-         case "java.text.AttributedCharacterIterator" :
-            break;
-         case "java.lang.String" :
-            return IvyXml.getTextElement(xml,"VALUE");
-         case "java.awt.font.GlyphVector" :
-            break;
-         case "java.awt.image.BufferedImage" :
-            break;
-         case "java.awt.geom.AffineTransform" :
-            Element telt = IvyXml.getChild(xml,"TRANSFORM");
-            if (telt == null) telt = xml;
-            return new AffineTransform(IvyXml.getAttrDouble(telt,"M00"),
-        	     IvyXml.getAttrDouble(telt,"M10"),
-        	     IvyXml.getAttrDouble(telt,"M01"),
-        	     IvyXml.getAttrDouble(telt,"M11"),
-        	     IvyXml.getAttrDouble(telt,"M02"),
-        	     IvyXml.getAttrDouble(telt,"M12"));
-         case "java.awt.Rectangle" :
-            Element relt = IvyXml.getChild(xml,"RECT");
-            if (relt == null) relt = xml;
-            return new Rectangle(IvyXml.getAttrInt(relt,"X"),
-        	  IvyXml.getAttrInt(relt,"Y"),
-        	  IvyXml.getAttrInt(relt,"WIDTH"),
-        	  IvyXml.getAttrInt(relt,"HEIGHT"));
-         case "java.awt.image.renderable.RenderableImage" :
-            break;
-         case "java.awt.image.RenderedImage" :
-            break;
-         case "sun.awt.image.ToolkitImage" :
-            switch (IvyXml.getAttrString(xml,"KIND")) {
-               case "URL" :
-        	  try {
-        	     URL u = new URI(IvyXml.getAttrString(xml,"PROTOCOL"),null,
-        		   IvyXml.getAttrString(xml,"HOST"),
-        		   IvyXml.getAttrInt(xml,"PORT"),
-        		   IvyXml.getAttrString(xml,"PATH"),null,null).toURL();
-        	     ImageIcon icn = new ImageIcon(u);
-        	     return icn.getImage();
-        	   }
-        	  catch (MalformedURLException | URISyntaxException e) { }
-        	  break;
-               default :
-        	  break;
-             }
-            break;
-         // need to handle other shapes
-       }
-      return null;
-    }
+}	// end of inner class GraphicsState
 
-   private int getIntArg(int idx) {
-      return ((Number) command_args.get(idx)).intValue();
+
+
+/********************************************************************************/
+/*										*/
+/*	Packed graphics commands						*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	The commands for a window packed into parallel arrays.	Each command
+ *	has a code (kind and type), a time and a run of numeric operands in a
+ *	shared double array.  Object operands (strings, shapes, transforms,
+ *	fonts, colors, images) are stored as indices into a table of interned
+ *	values, so equal objects are shared across commands.
+ **/
+
+private static class CommandBuffer {
+
+   private int command_count;
+   private int [] command_codes;
+   private long [] command_times;
+   private int [] arg_starts;
+   private double [] arg_data;
+   private int arg_count;
+   private List<Object> object_table;
+   private Map<Object,Integer> object_index;
+   private Map<Object,Integer> image_index;
+   private boolean time_sorted;
+
+   CommandBuffer() {
+      command_count = 0;
+      command_codes = new int[64];
+      command_times = new long[64];
+      arg_starts = new int[65];
+      arg_data = new double[256];
+      arg_count = 0;
+      object_table = new ArrayList<>();
+      object_index = new HashMap<>();
+      image_index = new HashMap<>();
+      time_sorted = true;
     }
 
-   private float getFloatArg(int idx) {
-      return ((Number) command_args.get(idx)).floatValue();
+   int getCount()				{ return command_count; }
+   long getTime(int idx)			{ return command_times[idx]; }
+   int getKind(int idx) 			{ return command_codes[idx] >>> 16; }
+   boolean isTimeSorted()			{ return time_sorted; }
+
+   CommandType getDrawType(int idx) {
+      return COMMAND_TYPES[command_codes[idx] & 0xffff];
     }
 
-   private double getDoubleArg(int idx) {
-      return ((Number) command_args.get(idx)).doubleValue();
+   FieldType getFieldType(int idx) {
+      return FIELD_TYPES[command_codes[idx] & 0xffff];
     }
 
-   private boolean getBooleanArg(int idx) {
-      return ((Boolean) command_args.get(idx)).booleanValue();
+   int getArgCount(int idx) {
+      return arg_starts[idx+1] - arg_starts[idx];
     }
 
+   int getInt(int idx,int arg)			{ return (int) arg_data[arg_starts[idx]+arg]; }
+   float getFloat(int idx,int arg)		{ return (float) arg_data[arg_starts[idx]+arg]; }
+   double getDouble(int idx,int arg)		{ return arg_data[arg_starts[idx]+arg]; }
+   boolean getBoolean(int idx,int arg)		{ return arg_data[arg_starts[idx]+arg] != 0; }
 
-   private String getStringArg(int idx) {
-      return command_args.get(idx).toString();
+   Object getObject(int idx,int arg) {
+      int oidx = getInt(idx,arg);
+      if (oidx < 0) return null;
+      return object_table.get(oidx);
     }
 
-}	// end of inner class DrawCommand
+   String getString(int idx,int arg) {
+      return String.valueOf(getObject(idx,arg));
+    }
 
+   void addDraw(Element xml) {
+      CommandType ct = IvyXml.getAttrEnum(xml,"TYPE",CommandType.NONE);
+      beginCommand(xml,KIND_DRAW,ct.ordinal());
+      for (Element ae : IvyXml.children(xml,"ARG")) {
+	 addArg(ae);
+       }
+      endCommand();
+    }
 
+   void addField(Element xml) {
+      FieldType ft = IvyXml.getAttrEnum(xml,"TYPE",FieldType.NONE);
+      beginCommand(xml,KIND_FIELD,ft.ordinal());
+      Object value = null;
+      for (Element ce : IvyXml.children(xml)) {
+	 value = decodeField(ce);
+	 break;
+       }
+      addObject(value);
+      endCommand();
+    }
 
-static class FieldCommand extends GraphicsCommand {
+   void addIndex(Element xml) {
+      beginCommand(xml,KIND_INDEX,0);
+      addValue(IvyXml.getAttrInt(xml,"VALUE"));
+      endCommand();
+    }
 
-   private FieldType field_type;
-   private Object field_value;
+   void finish() {
+      command_codes = Arrays.copyOf(command_codes,command_count);
+      command_times = Arrays.copyOf(command_times,command_count);
+      arg_starts = Arrays.copyOf(arg_starts,command_count+1);
+      arg_data = Arrays.copyOf(arg_data,arg_count);
+      object_index = null;
+      image_index = null;
+    }
 
-   FieldCommand(Element xml) {
-      super(xml);
-      field_type = IvyXml.getAttrEnum(xml,"TYPE",FieldType.NONE);
-      for (Element ce : IvyXml.children(xml)) {
-         field_value = decodeField(ce);
-         break;
+   private void beginCommand(Element xml,int kind,int type) {
+      long time = IvyXml.getAttrLong(xml,"TIME");
+      if (command_count+1 >= arg_starts.length) {
+	 int sz = command_codes.length * 2;
+	 command_codes = Arrays.copyOf(command_codes,sz);
+	 command_times = Arrays.copyOf(command_times,sz);
+	 arg_starts = Arrays.copyOf(arg_starts,sz+1);
        }
+      if (command_count > 0 && command_times[command_count-1] > time) time_sorted = false;
+      command_codes[command_count] = (kind << 16) | type;
+      command_times[command_count] = time;
+      arg_starts[command_count] = arg_count;
     }
 
-   @Override void paint(Graphics2D g,GraphicsData gd) {
-      if (field_value == null) return;
-      BoardLog.logD("BICEX","FIELD " + field_type + " " + g.getClipBounds());
-   
-      switch (field_type) {
-         case PAINT :
-            g.setPaint((Paint) field_value);
-            break;
-         case FG :
-            g.setColor((Color) field_value);
-            break;
-         case BG :
-            g.setBackground((Color) field_value);
-            break;
-         case CLIP :
-            Shape r = (Shape) field_value;
-            Shape r1 = gd.getBaseClip();
-            Shape r2 = g.getTransform().createTransformedShape(r1);
-            try {
-               r1 = g.getTransform().createInverse().createTransformedShape(r1);
-             }
-            catch (Throwable t) { }
-            BoardLog.logD("BICEX","CLIPVALUE " + r1.getBounds() + " " + r2.getBounds() + " " + r +
-        	  " " + g.getClip());
-            // g.setClip(r1);
-            // g.clip(r);
-            // g.setClip(r);
-            break;
-         case TRANSFORM :
-            AffineTransform nt = (AffineTransform) field_value;
-            BoardLog.logD("BICEX","TRANSFORM " + g.getTransform() + " " + field_value);
-            g.setTransform(nt);
-            break;
-         case FONT :
-            g.setFont((Font) field_value);
-            break;
-         case COMPOSITE :
-            g.setComposite((Composite) field_value);
-            break;
-         case STROKE :
-            g.setStroke((Stroke) field_value);
-            break;
-         case HINTS :
-            break;
-         case NONE :
-            break;
-       }
+   private void endCommand() {
+      ++command_count;
+      arg_starts[command_count] = arg_count;
     }
 
-   private Object decodeField(Element xml) {
-      Object rslt = null;
-      if (IvyXml.isElement(xml,"COLOR")) {
-         rslt = IvyXml.getAttrColor(xml,"VALUE");
-       }
-      else if (IvyXml.isElement(xml,"FONT")) {
-         float fsz = IvyXml.getAttrFloat(xml,"SIZE");
-         int intsz = (int) fsz;
-         rslt = new Font(IvyXml.getAttrString(xml,"NAME"),IvyXml.getAttrInt(xml,"STYLE"),
-               intsz);
-         if (intsz != fsz) {
-            rslt = ((Font) rslt).deriveFont(fsz);
-          }
-       }
-      else if (IvyXml.isElement(xml,"RECT")) {
-         rslt = new Rectangle(IvyXml.getAttrInt(xml,"X"),IvyXml.getAttrInt(xml,"Y"),
-               IvyXml.getAttrInt(xml,"WIDTH"),IvyXml.getAttrInt(xml,"HEIGHT"));
-       }
-      else if (IvyXml.isElement(xml,"ALPHACOMP")) {
-         rslt = AlphaComposite.getInstance(IvyXml.getAttrInt(xml,"RULE"),
-               IvyXml.getAttrFloat(xml,"ALPHA"));
+   private void addValue(double v) {
+      if (arg_count >= arg_data.length) {
+	 arg_data = Arrays.copyOf(arg_data,arg_data.length*2);
        }
-      else if (IvyXml.isElement(xml,"BASICSTROKE")) {
-         // handle stroke
-       }
-      else if (IvyXml.isElement(xml,"HINTS")) {
-         // handle hints
-       }
-      else if (IvyXml.isElement(xml,"TRANSFORM")) {
-         rslt = new AffineTransform(IvyXml.getAttrDouble(xml,"M00"),
-               IvyXml.getAttrDouble(xml,"M10"),
-               IvyXml.getAttrDouble(xml,"M01"),
-               IvyXml.getAttrDouble(xml,"M11"),
-               IvyXml.getAttrDouble(xml,"M02"),
-               IvyXml.getAttrDouble(xml,"M12"));
-       }
-      else if (IvyXml.isElement(xml,"GRADIENT")) {
-         rslt = new GradientPaint(IvyXml.getAttrFloat(xml,"X1"),IvyXml.getAttrFloat(xml,"Y1"),
-               IvyXml.getAttrColor(xml,"C1"),
-               IvyXml.getAttrFloat(xml,"X2"),IvyXml.getAttrFloat(xml,"Y2"),
-               IvyXml.getAttrColor(xml,"C2"),
-               IvyXml.getAttrBool(xml,"CYC"));
+      arg_data[arg_count++] = v;
+    }
+
+   private void addObject(Object o) {
+      addValue(intern(object_index,o,o));
+    }
+
+   private int intern(Map<Object,Integer> index,Object key,Object value) {
+      if (key == null || value == null) return -1;
+      Integer idx = index.get(key);
+      if (idx == null) {
+	 idx = object_table.size();
+	 object_table.add(value);
+	 index.put(key,idx);
        }
-   
-      return rslt;
+      return idx;
     }
 
-}	// end of inner class FieldCommand
+   private void addArg(Element xml) {
+      switch (IvyXml.getAttrString(xml,"TYPE")) {
+	 case "int" :
+	    addValue(IvyXml.getAttrInt(xml,"VALUE",0));
+	    return;
+	 case "boolean" :
+	    addValue(IvyXml.getAttrBool(xml,"VALUE") ? 1 : 0);
+	    return;
+	 case "float" :
+	    addValue(IvyXml.getAttrFloat(xml,"VALUE",0));
+	    return;
+	 case "double" :
+	    addValue(IvyXml.getAttrDouble(xml,"VALUE",0));
+	    return;
+	 case "java.lang.String" :
+	    addObject(IvyXml.getTextElement(xml,"VALUE"));
+	    return;
+	 case "java.awt.geom.AffineTransform" :
+	    Element telt = IvyXml.getChild(xml,"TRANSFORM");
+	    if (telt == null) telt = xml;
+	    addObject(new AffineTransform(IvyXml.getAttrDouble(telt,"M00"),
+		  IvyXml.getAttrDouble(telt,"M10"),
+		  IvyXml.getAttrDouble(telt,"M01"),
+		  IvyXml.getAttrDouble(telt,"M11"),
+		  IvyXml.getAttrDouble(telt,"M02"),
+		  IvyXml.getAttrDouble(telt,"M12")));
+	    return;
+	 case "java.awt.Rectangle" :
+	    Element relt = IvyXml.getChild(xml,"RECT");
+	    if (relt == null) relt = xml;
+	    addObject(new Rectangle(IvyXml.getAttrInt(relt,"X"),
+		  IvyXml.getAttrInt(relt,"Y"),
+		  IvyXml.getAttrInt(relt,"WIDTH"),
+		  IvyXml.getAttrInt(relt,"HEIGHT")));
+	    return;
+	 case "sun.awt.image.ToolkitImage" :
+	    if ("URL".equals(IvyXml.getAttrString(xml,"KIND"))) {
+	       try {
+		  URL u = new URI(IvyXml.getAttrString(xml,"PROTOCOL"),null,
+			IvyXml.getAttrString(xml,"HOST"),
+			IvyXml.getAttrInt(xml,"PORT"),
+			IvyXml.getAttrString(xml,"PATH"),null,null).toURL();
+		  // images are keyed by URL apart from string arguments
+		  String key = u.toString();
+		  if (!image_index.containsKey(key)) {
+		     ImageIcon icn = new ImageIcon(u);
+		     addValue(intern(image_index,key,icn.getImage()));
+		   }
+		  else addValue(image_index.get(key));
+		  return;
+		}
+	       catch (MalformedURLException | URISyntaxException e) { }
+	     }
+	    break;
+	 default :
+	    // need to handle byte[], char[], int[], other images and shapes
+	    break;
+       }
+      addObject(null);
+    }
 
+}	// end of inner class CommandBuffer
 
-static class IndexCommand extends GraphicsCommand {
 
-   private int graphics_index;
 
-   IndexCommand(Element xml) {
-      super(xml);
-      graphics_index = IvyXml.getAttrInt(xml,"VALUE");
+private static Object decodeField(Element xml)
+{
+   Object rslt = null;
+   if (IvyXml.isElement(xml,"COLOR")) {
+      rslt = IvyXml.getAttrColor(xml,"VALUE");
     }
-
-   @Override public Graphics2D getGraphics(Graphics2D g,GraphicsData gd) {
-      return gd.getGraphicsForIndex(graphics_index,g);
+   else if (IvyXml.isElement(xml,"FONT")) {
+      float fsz = IvyXml.getAttrFloat(xml,"SIZE");
+      int intsz = (int) fsz;
+      rslt = new Font(IvyXml.getAttrString(xml,"NAME"),IvyXml.getAttrInt(xml,"STYLE"),
+	    intsz);
+      if (intsz != fsz) {
+	 rslt = ((Font) rslt).deriveFont(fsz);
+       }
+    }
+   else if (IvyXml.isElement(xml,"RECT")) {
+      rslt = new Rectangle(IvyXml.getAttrInt(xml,"X"),IvyXml.getAttrInt(xml,"Y"),
+	    IvyXml.getAttrInt(xml,"WIDTH"),IvyXml.getAttrInt(xml,"HEIGHT"));
+    }
+   else if (IvyXml.isElement(xml,"ALPHACOMP")) {
+      rslt = AlphaComposite.getInstance(IvyXml.getAttrInt(xml,"RULE"),
+	    IvyXml.getAttrFloat(xml,"ALPHA"));
+    }
+   else if (IvyXml.isElement(xml,"BASICSTROKE")) {
+      // handle stroke
+    }
+   else if (IvyXml.isElement(xml,"HINTS")) {
+      // handle hints
+    }
+   else if (IvyXml.isElement(xml,"TRANSFORM")) {
+      rslt = new AffineTransform(IvyXml.getAttrDouble(xml,"M00"),
+	    IvyXml.getAttrDouble(xml,"M10"),
+	    IvyXml.getAttrDouble(xml,"M01"),
+	    IvyXml.getAttrDouble(xml,"M11"),
+	    IvyXml.getAttrDouble(xml,"M02"),
+	    IvyXml.getAttrDouble(xml,"M12"));
+    }
+   else if (IvyXml.isElement(xml,"GRADIENT")) {
+      rslt = new GradientPaint(IvyXml.getAttrFloat(xml,"X1"),IvyXml.getAttrFloat(xml,"Y1"),
+	    IvyXml.getAttrColor(xml,"C1"),
+	    IvyXml.getAttrFloat(xml,"X2"),IvyXml.getAttrFloat(xml,"Y2"),
+	    IvyXml.getAttrColor(xml,"C2"),
+	    IvyXml.getAttrBool(xml,"CYC"));
     }
 
-}	//end of innter class IndexCommand
+   return rslt;
+}
 
 
 
@@ -0,0 +1,563 @@
+/********************************************************************************/
+/*										*/
+/*		BicexLayoutService.java 					*/
+/*										*/
+/*	Build and lay out Petal graphs without blocking the display		*/
+/*										*/
+/********************************************************************************/
+/*	Copyright 2011 Brown University -- Steven P. Reiss		      */
+/*********************************************************************************
+ *  Copyright 2011, Brown University, Providence, RI.				 *
+ *										 *
+ *			  All Rights Reserved					 *
+ *										 *
+ * This program and the accompanying materials are made available under the	 *
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, *
+ * and is available at								 *
+ *	http://www.eclipse.org/legal/epl-v10.html				 *
+ *										 *
+ ********************************************************************************/
+
+/* SVN: $Id$ */
+
+
+
+package edu.brown.cs.seedebb.bicex;
+
+import edu.brown.cs.bubbles.board.BoardLog;
+import edu.brown.cs.bubbles.board.BoardMetrics;
+import edu.brown.cs.bubbles.board.BoardThreadPool;
+
+import edu.brown.cs.ivy.petal.PetalArc;
+import edu.brown.cs.ivy.petal.PetalArcDefault;
+import edu.brown.cs.ivy.petal.PetalEditor;
+import edu.brown.cs.ivy.petal.PetalLayoutMethod;
+import edu.brown.cs.ivy.petal.PetalModelDefault;
+import edu.brown.cs.ivy.petal.PetalNode;
+import edu.brown.cs.ivy.petal.PetalNodeDefault;
+
+import javax.swing.Box;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *	Service that updates the graph shown in a Petal editor.  The nodes and
+ *	arcs for a new graph are built on a background thread into a separate
+ *	LayoutGraph; a request that is superseded by a newer one is cancelled
+ *	(the builder checks isCancelled()) and never installed.  The graph is
+ *	laid out on the background thread using stand-in nodes and arcs in a
+ *	separate editor, starting from the positions of nodes with the same
+ *	key in the previous graph, so the displayed model is never touched
+ *	there.  The graph and its positions are then installed on the event
+ *	thread in one step.  If the keys of the nodes and arcs are unchanged
+ *	the layout is not redone.
+ **/
+
+class BicexLayoutService implements BicexConstants
+{
+
+
+/********************************************************************************/
+/*										*/
+/*	Private Storage 							*/
+/*										*/
+/********************************************************************************/
+
+private JComponent		graph_component;
+private PetalEditor		petal_editor;
+private PetalModelDefault	petal_model;
+private LayoutFactory		layout_factory;
+private LayoutJob		pending_job;
+private boolean 		worker_active;
+private volatile int		job_counter;
+private LayoutGraph		current_graph;
+private int			cancel_count;
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Constructors								*/
+/*										*/
+/********************************************************************************/
+
+BicexLayoutService(JComponent comp,PetalEditor ed,PetalModelDefault mdl,LayoutFactory lf)
+{
+   graph_component = comp;
+   petal_editor = ed;
+   petal_model = mdl;
+   layout_factory = lf;
+   pending_job = null;
+   worker_active = false;
+   job_counter = 0;
+   current_graph = null;
+   cancel_count = 0;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Builder interface							*/
+/*										*/
+/********************************************************************************/
+
+interface LayoutBuilder {
+
+   /**
+    *	Add the nodes and arcs of the graph.  Called on a background thread;
+    *	it should not touch the displayed model.
+    **/
+   void buildGraph(LayoutGraph g);
+
+   /**
+    *	Called on the event thread once the graph is displayed and laid out.
+    **/
+   void graphInstalled(LayoutGraph g);
+
+}	// end of interface LayoutBuilder
+
+
+
+interface LayoutFactory {
+
+   /**
+    *	Create the layout method to use for the given editor.  Called on a
+    *	background thread with an editor that is not displayed.
+    **/
+   PetalLayoutMethod createLayout(PetalEditor ed);
+
+}	// end of interface LayoutFactory
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Request methods 							*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Request a new graph.  Any request that has not been installed yet is
+ *	cancelled.
+ **/
+
+void requestLayout(LayoutBuilder bldr)
+{
+   synchronized (this) {
+      if (pending_job != null) ++cancel_count;
+      pending_job = new LayoutJob(++job_counter,bldr);
+      if (worker_active) return;
+      worker_active = true;
+    }
+
+   BoardThreadPool.start(new Worker());
+}
+
+
+
+private boolean isCurrent(int id)
+{
+   return id == job_counter;
+}
+
+
+
+private class Worker implements Runnable {
+
+   @Override public void run() {
+      for ( ; ; ) {
+	 LayoutJob job;
+	 synchronized (BicexLayoutService.this) {
+	    job = pending_job;
+	    pending_job = null;
+	    if (job == null) {
+	       worker_active = false;
+	       return;
+	     }
+	  }
+
+	 LayoutGraph g = new LayoutGraph(job.getId());
+	 long start = System.currentTimeMillis();
+	 try {
+	    job.getBuilder().buildGraph(g);
+	  }
+	 catch (Throwable t) {
+	    BoardLog.logE("BICEX","Problem building graph",t);
+	    continue;
+	  }
+	 if (g.isCancelled()) continue;
+	 g.setBuildTime(System.currentTimeMillis() - start);
+
+	 layoutGraph(g,job.getBuilder());
+       }
+    }
+
+}	// end of inner class Worker
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Layout methods (background thread)					*/
+/*										*/
+/********************************************************************************/
+
+private void layoutGraph(LayoutGraph g,LayoutBuilder bldr)
+{
+   Snapshot snap = new Snapshot(g);
+   try {
+      SwingUtilities.invokeAndWait(snap);
+    }
+   catch (InterruptedException e) {
+      return;
+    }
+   catch (InvocationTargetException e) {
+      BoardLog.logE("BICEX","Problem getting graph positions",e.getCause());
+      return;
+    }
+   if (g.isCancelled()) return;
+
+   long start = System.currentTimeMillis();
+   LayoutResult rslt = null;
+   if (snap.isSameShape()) rslt = snap.getPositions();
+   else {
+      try {
+	 rslt = computeLayout(g,snap);
+       }
+      catch (Throwable t) {
+	 BoardLog.logE("BICEX","Problem laying out graph",t);
+	 rslt = snap.getPositions();
+       }
+    }
+   long ltime = System.currentTimeMillis() - start;
+   if (g.isCancelled()) return;
+
+   SwingUtilities.invokeLater(new Installer(g,bldr,rslt,snap.isSameShape(),ltime));
+}
+
+
+
+/**
+ *	Lay out stand-ins for the nodes and arcs of the graph in an editor of
+ *	our own.  Each stand-in has the size of its node and starts where the
+ *	node with the same key was in the previous graph.
+ **/
+
+private LayoutResult computeLayout(LayoutGraph g,Snapshot snap)
+{
+   PetalModelDefault mdl = new PetalModelDefault();
+   PetalEditor ed = new PetalEditor(mdl);
+   Map<PetalNode,PetalNode> proxies = new IdentityHashMap<>();
+   Map<PetalArc,PetalArc> arcproxies = new IdentityHashMap<>();
+
+   for (PetalNode pn : g.getNodes()) {
+      Rectangle r = snap.getPositions().getBounds(pn);
+      Dimension d = r.getSize();
+      Component c = new Box.Filler(d,d,d);
+      c.setBounds(r);
+      PetalNode proxy = new PetalNodeDefault(c);
+      proxies.put(pn,proxy);
+      mdl.addNode(proxy);
+    }
+   for (PetalArc pa : g.getArcs()) {
+      PetalNode src = proxies.get(pa.getSource());
+      PetalNode tgt = proxies.get(pa.getTarget());
+      if (src == null || tgt == null) continue;
+      PetalArc proxy = new PetalArcDefault(src,tgt);
+      arcproxies.put(pa,proxy);
+      mdl.addArc(proxy);
+    }
+
+   ed.commandLayout(layout_factory.createLayout(ed));
+
+   LayoutResult rslt = new LayoutResult();
+   for (Map.Entry<PetalNode,PetalNode> ent : proxies.entrySet()) {
+      rslt.setBounds(ent.getKey(),ent.getValue().getComponent().getBounds());
+    }
+   for (Map.Entry<PetalArc,PetalArc> ent : arcproxies.entrySet()) {
+      rslt.setPoints(ent.getKey(),ent.getValue().getPoints());
+    }
+
+   return rslt;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Event thread methods							*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Record the size of each new node and the position of the node with
+ *	the same key in the displayed graph.  Nothing is changed here.
+ **/
+
+private class Snapshot implements Runnable {
+
+   private LayoutGraph new_graph;
+   private LayoutResult node_positions;
+   private boolean same_shape;
+
+   Snapshot(LayoutGraph g) {
+      new_graph = g;
+      node_positions = new LayoutResult();
+      same_shape = false;
+    }
+
+   LayoutResult getPositions()			{ return node_positions; }
+   boolean isSameShape()			{ return same_shape; }
+
+   @Override public void run() {
+      if (new_graph.isCancelled()) return;
+
+      LayoutGraph prev = current_graph;
+      same_shape = (prev != null && new_graph.sameShape(prev));
+
+      for (PetalNode pn : new_graph.getNodes()) {
+	 Rectangle r = new Rectangle(pn.getComponent().getPreferredSize());
+	 if (prev != null) {
+	    PetalNode opn = prev.getNode(new_graph.getKey(pn));
+	    if (opn != null) r.setLocation(opn.getComponent().getLocation());
+	  }
+	 node_positions.setBounds(pn,r);
+       }
+
+      // arcs are not rerouted when the layout is kept
+      if (!same_shape) return;
+      for (PetalArc pa : new_graph.getArcs()) {
+	 PetalArc opa = prev.getArc(new_graph.getKey(pa));
+	 if (opa == null || opa.getPoints() == null) continue;
+	 Point [] opts = opa.getPoints();
+	 Point [] pts = new Point[opts.length];
+	 for (int i = 0; i < opts.length; ++i) pts[i] = new Point(opts[i]);
+	 node_positions.setPoints(pa,pts);
+       }
+    }
+
+}	// end of inner class Snapshot
+
+
+
+/**
+ *	Install the new graph together with its positions.
+ **/
+
+private class Installer implements Runnable {
+
+   private LayoutGraph new_graph;
+   private LayoutBuilder for_builder;
+   private LayoutResult graph_layout;
+   private boolean same_shape;
+   private long layout_time;
+
+   Installer(LayoutGraph g,LayoutBuilder bldr,LayoutResult rslt,boolean same,long ltime) {
+      new_graph = g;
+      for_builder = bldr;
+      graph_layout = rslt;
+      same_shape = same;
+      layout_time = ltime;
+    }
+
+   @Override public void run() {
+      if (new_graph.isCancelled()) return;
+
+      installGraph(new_graph,graph_layout);
+
+      Dimension d = petal_editor.getPreferredSize();
+      graph_component.setPreferredSize(d);
+      graph_component.setSize(d);
+      graph_component.setMinimumSize(d);
+      graph_component.repaint();
+
+      int ccnt;
+      synchronized (BicexLayoutService.this) {
+	 ccnt = cancel_count;
+	 cancel_count = 0;
+       }
+      BoardMetrics.noteCommand("BICEX","GraphLayout",new_graph.getNodeCount(),
+	    new_graph.getBuildTime(),layout_time,same_shape,ccnt);
+
+      for_builder.graphInstalled(new_graph);
+    }
+
+}	// end of inner class Installer
+
+
+
+private void installGraph(LayoutGraph g,LayoutResult rslt)
+{
+   petal_model.clear();
+   for (PetalNode pn : g.getNodes()) {
+      Rectangle r = rslt.getBounds(pn);
+      if (r != null) pn.getComponent().setBounds(r);
+      petal_model.addNode(pn);
+    }
+   for (PetalArc pa : g.getArcs()) {
+      Point [] pts = rslt.getPoints(pa);
+      if (pts != null) pa.setPoints(pts);
+      petal_model.addArc(pa);
+    }
+   current_graph = g;
+
+   petal_model.fireModelUpdated();
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	LayoutResult -- positions computed for a graph				*/
+/*										*/
+/********************************************************************************/
+
+private static class LayoutResult {
+
+   private Map<PetalNode,Rectangle> node_bounds;
+   private Map<PetalArc,Point []> arc_points;
+
+   LayoutResult() {
+      node_bounds = new IdentityHashMap<>();
+      arc_points = new IdentityHashMap<>();
+    }
+
+   void setBounds(PetalNode pn,Rectangle r)	{ node_bounds.put(pn,r); }
+   void setPoints(PetalArc pa,Point [] pts)	{ arc_points.put(pa,pts); }
+
+   Rectangle getBounds(PetalNode pn)		{ return node_bounds.get(pn); }
+   Point [] getPoints(PetalArc pa)		{ return arc_points.get(pa); }
+
+}	// end of inner class LayoutResult
+
+
+
+/********************************************************************************/
+/*										*/
+/*	LayoutJob -- pending request						*/
+/*										*/
+/********************************************************************************/
+
+private static class LayoutJob {
+
+   private int job_id;
+   private LayoutBuilder graph_builder;
+
+   LayoutJob(int id,LayoutBuilder bldr) {
+      job_id = id;
+      graph_builder = bldr;
+    }
+
+   int getId()					{ return job_id; }
+   LayoutBuilder getBuilder()			{ return graph_builder; }
+
+}	// end of inner class LayoutJob
+
+
+
+/********************************************************************************/
+/*										*/
+/*	LayoutGraph -- nodes and arcs of a graph being built			*/
+/*										*/
+/********************************************************************************/
+
+class LayoutGraph {
+
+   private int job_id;
+   private List<PetalNode> graph_nodes;
+   private List<PetalArc> graph_arcs;
+   private Map<PetalNode,Object> node_keys;
+   private Map<Object,PetalNode> key_nodes;
+   private Map<List<Object>,PetalArc> arc_keys;
+   private long build_time;
+
+   LayoutGraph(int id) {
+      job_id = id;
+      graph_nodes = new ArrayList<>();
+      graph_arcs = new ArrayList<>();
+      node_keys = new IdentityHashMap<>();
+      key_nodes = new HashMap<>();
+      arc_keys = new HashMap<>();
+      build_time = 0;
+    }
+
+   /**
+    *	Return true if a newer graph has been requested.
+    **/
+
+   boolean isCancelled()			{ return !isCurrent(job_id); }
+
+   /**
+    *	Add a node.  The key identifies the node across updates so that
+    *	its position can be reused.
+    **/
+
+   void addNode(PetalNode pn,Object key) {
+      if (key == null) key = pn;
+      graph_nodes.add(pn);
+      node_keys.put(pn,key);
+      key_nodes.put(key,pn);
+    }
+
+   void addArc(PetalArc pa) {
+      graph_arcs.add(pa);
+      arc_keys.put(getKey(pa),pa);
+    }
+
+   void clear() {
+      graph_nodes.clear();
+      graph_arcs.clear();
+      node_keys.clear();
+      key_nodes.clear();
+      arc_keys.clear();
+    }
+
+   int getNodeCount()				{ return graph_nodes.size(); }
+
+   List<PetalNode> getNodes()			{ return graph_nodes; }
+   List<PetalArc> getArcs()			{ return graph_arcs; }
+
+   private Object getKey(PetalNode pn) {
+      Object key = node_keys.get(pn);
+      if (key == null) key = pn;
+      return key;
+    }
+
+   private List<Object> getKey(PetalArc pa) {
+      return Arrays.asList(getKey(pa.getSource()),getKey(pa.getTarget()));
+    }
+
+   private PetalNode getNode(Object key)	{ return key_nodes.get(key); }
+   private PetalArc getArc(List<Object> key)	{ return arc_keys.get(key); }
+
+   private boolean sameShape(LayoutGraph g) {
+      return key_nodes.keySet().equals(g.key_nodes.keySet()) && arc_keys.keySet().equals(g.arc_keys.keySet());
+    }
+
+   private void setBuildTime(long t)		{ build_time = t; }
+   private long getBuildTime()			{ return build_time; }
+
+}	// end of inner class LayoutGraph
+
+
+
+}	// end of class BicexLayoutService
+
+
+
+
+/* end of BicexLayoutService.java */
@@ -41,6 +41,7 @@ import edu.brown.cs.ivy.petal.PetalNodeDefault;
 import edu.brown.cs.ivy.petal.PetalUndoSupport;
 
 import javax.swing.JComponent;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 
@@ -49,11 +50,12 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 
 class BicexLineGraphPanel extends BicexPanel implements BicexConstants
@@ -114,32 +116,30 @@ BicexLineGraphPanel(BicexEvaluationViewer ev)
    Arc a = line_graph.findArc(evt.getPoint());
    if (n == null && a == null) return;
 
-   if (n == null && a != null) n = (Node) a.getTarget();
+   if (n == null && a != null) {
+      JMenuItem itm = new JMenuItem("Taken " + a.getCount() + " times");
+      itm.setEnabled(false);
+      menu.add(itm);
+      n = (Node) a.getTarget();
+    }
    if (n == null) return;
 
    int lno = n.getLine();
-   BicexValue bv = getRootContext().getValues().get("*LINE*");
-   List<Integer> times = bv.getTimeChanges();
+   BicexLineIndex li = getRootContext().getLineIndex();
+   if (li == null) return;
    long now = getExecution().getCurrentTime();
-   long prev = -1;
-   long next = -1;
-   long first = -1;
-   long last = -1;
-   for (Integer t : times) {
-      String xv = bv.getStringValue(t+1);
-      int flin = Integer.parseInt(xv);
-      if (flin == 0 || flin != lno) continue;
-      if (t < now) {
-	 if (first < 0 && prev > 0) first = prev;
-	 prev = t;
-       }
-      else if (t > now && next < 0) next = t;
-      else if (t > now) last = t;
-    }
+   long [] times = li.getLineTimes(lno);
+   int pos = Arrays.binarySearch(times,now);
+   int before = (pos >= 0 ? pos : -pos-1);
+   int after = (pos >= 0 ? pos+1 : before);
+   long prev = (before > 0 ? times[before-1] : -1);
+   long next = (after < times.length ? times[after] : -1);
+   long first = (before > 1 ? times[0] : -1);
+   long last = (after < times.length-1 ? times[times.length-1] : -1);
    if (first > 0) menu.add(getTimeAction("Go To First " + lno,first+1));
    if (prev > 0) menu.add(getTimeAction("Go To Previous " + lno,prev+1));
    if (next > 0) menu.add(getTimeAction("Go To Next " + lno,next+1));
-   if (last > 0) menu.add(getTimeAction("Go To Final " + lno,next+1));
+   if (last > 0) menu.add(getTimeAction("Go To Final " + lno,last+1));
 }
 
 
@@ -163,8 +163,6 @@ BicexLineGraphPanel(BicexEvaluationViewer ev)
 @Override void update()
 {
    line_graph.update();
-
-   updateTime();
 }
 
 
@@ -173,13 +171,9 @@ BicexLineGraphPanel(BicexEvaluationViewer ev)
 {
    if (getContext() == null) return;
 
-   BicexValue bv = getContext().getValues().get("*LINE*");
-   if (bv == null) return;
-   int lno = -1;
-   try {
-      lno = Integer.parseInt(bv.getStringValue(getExecution().getCurrentTime()));
-    }
-   catch (NumberFormatException e) { }
+   Integer line = getContext().getLineAtTime(getExecution().getCurrentTime());
+   if (line == null) return;
+   int lno = line;
 
    Node n = line_graph.findNode(lno);
    line_graph.setCurrentNode(n);
@@ -193,15 +187,18 @@ BicexLineGraphPanel(BicexEvaluationViewer ev)
 /*										*/
 /********************************************************************************/
 
-private class LineFlowGraph extends JPanel {
+private class LineFlowGraph extends JPanel implements BicexLayoutService.LayoutFactory {
 
    private PetalEditor		petal_editor;
    private transient PetalModelDefault petal_model;
-   private transient PetalLayoutMethod layout_method;
+   private transient BicexLayoutService layout_service;
+   private Map<Integer,Node>	line_nodes;
+   private Map<BicexLineIndex,GraphBuilder> flow_cache;
    private Node 		current_node;
 
    private static final long serialVersionUID = 1;
    private static final boolean ALT_LAYOUT = false;
+   private static final int FLOW_CACHE_SIZE = 8;
 
 
    LineFlowGraph() {
@@ -210,94 +207,47 @@ private class LineFlowGraph extends JPanel {
       PetalUndoSupport.getSupport().blockCommands();
       petal_model = new Model();
       petal_editor = new PetalEditor(petal_model);
-      PetalLevelLayout levels = new PetalLevelLayout(petal_editor);
-      levels.setSplineArcs(false);
-      levels.setLevelX(true);
-      levels.setOptimizeLevels(true);
-      layout_method = levels;
-      PetalLayoutMethod alt = new PetalCircleLayout(petal_editor);
-      if (ALT_LAYOUT) layout_method = alt;
       add(petal_editor,BorderLayout.CENTER);
       petal_editor.addZoomWheeler();
+      layout_service = new BicexLayoutService(this,petal_editor,petal_model,this);
+      line_nodes = new HashMap<>();
+      flow_cache = new LinkedHashMap<BicexLineIndex,GraphBuilder>(16,0.75f,true) {
+	 private static final long serialVersionUID = 1;
+	 @Override protected boolean removeEldestEntry(Map.Entry<BicexLineIndex,GraphBuilder> e) {
+	    return size() > FLOW_CACHE_SIZE;
+	  }
+       };
       current_node = null;
    }
 
+   @Override public PetalLayoutMethod createLayout(PetalEditor ed) {
+      if (ALT_LAYOUT) return new PetalCircleLayout(ed);
+      PetalLevelLayout levels = new PetalLevelLayout(ed);
+      levels.setSplineArcs(false);
+      levels.setLevelX(true);
+      levels.setOptimizeLevels(true);
+      return levels;
+    }
+
    void update() {
-      Map<Integer,Node> nodes = new HashMap<Integer,Node>();
-      Map<Long,Arc> arcs = new HashMap<Long,Arc>();
-      BicexValue bv = getRootContext().getValues().get("*LINE*");
-
-      petal_model.clear();
-
-      if (bv != null) {
-	 List<Integer> times = bv.getTimeChanges();
-
-	 Map<Integer,Set<Integer>> linemap = new HashMap<>();
-	 Integer pline = null;
-	 int ctr = 0;
-	 for (Integer t : times) {
-	    String xv = bv.getStringValue(t+1);
-	    int line = Integer.parseInt(xv);
-	    if (line == 0) continue;
-	    if (pline != null) {
-	       if (pline == line && ctr <= 1) continue;
-	       Set<Integer> sval = linemap.get(pline);
-	       if (sval == null) {
-		  sval = new HashSet<>();
-		  linemap.put(pline,sval);
-		}
-	       sval.add(line);
-	     }
-	    pline = line;
-	    ++ctr;
-	  }
+      BicexEvaluationContext root = getRootContext();
+      if (root == null) return;
 
-	 Node prior = null;
-	 ctr = 0;
-	 for (Integer t : times) {
-	    String xv = bv.getStringValue(t+1);
-	    int line = Integer.parseInt(xv);
-	    if (line == 0) continue;
-	    Node next = nodes.get(line);
-	    if (next == null) {
-	       if (ctr == 0) next = new Node(line,PetalNodeShape.TRIANGLE_DOWN);
-	       else {
-		  Set<Integer> lset = linemap.get(line);
-		  if (lset == null) next = new Node(line,PetalNodeShape.TRIANGLE);
-		  else if (lset.size() > 1) next = new Node(line,PetalNodeShape.DIAMOND);
-		  else next = new Node(line,PetalNodeShape.RECTANGLE);
-		}
-	       nodes.put(line,next);
-	       petal_model.addNode(next);
-	    }
-	    if (prior == next && ctr <= 1) continue;
-	    if (prior != null) {
-	       long aid = prior.getLine()*1000000 + line;
-	       Arc a = arcs.get(aid);
-	       if (a == null) {
-		  a = new Arc(prior,next);
-		  Set<Integer> lset = linemap.get(line);
-		  if (lset != null && lset.contains(prior.getLine())) {
-		     a.setSplineArc(true);
-		  }
-		  arcs.put(aid,a);
-		  petal_model.addArc(a);
-	       }
-	       else a.addInstance();
-	    }
-	    prior = next;
-	    ++ctr;
-	  }
+      BicexLineIndex li = root.getLineIndex();
+      if (li == null) {
+	 layout_service.requestLayout(new GraphBuilder(null));
+	 return;
        }
 
-      petal_model.fireModelUpdated();
-      petal_editor.commandLayout(layout_method);
-      Dimension dim = petal_editor.getPreferredSize();
-      // dim.height += 8;
-      setSize(dim);
-      setPreferredSize(dim);
-      setMinimumSize(dim);
-      repaint();
+      GraphBuilder gb;
+      synchronized (flow_cache) {
+	 gb = flow_cache.get(li);
+	 if (gb == null) {
+	    gb = new GraphBuilder(li);
+	    flow_cache.put(li,gb);
+	  }
+       }
+      layout_service.requestLayout(gb);
     }
 
    Node findNode(Point pt) {
@@ -313,11 +263,7 @@ private class LineFlowGraph extends JPanel {
     }
 
    Node findNode(int ln) {
-      for (PetalNode pn : petal_model.getNodes()) {
-	 Node n = (Node) pn;
-	 if (n.getLine() == ln) return n;
-       }
-      return null;
+      return line_nodes.get(ln);
     }
 
    void setCurrentNode(Node n) {
@@ -332,6 +278,73 @@ private class LineFlowGraph extends JPanel {
        }
     }
 
+   /**
+    *	The nodes and arcs for the line flow of one context.  These are
+    *	derived once from the transitions of its line index and then reused
+    *	whenever the context is shown again.
+    **/
+
+   private class GraphBuilder implements BicexLayoutService.LayoutBuilder {
+
+      private BicexLineIndex line_index;
+      private Map<Integer,Node> new_nodes;
+      private List<Node> graph_nodes;
+      private List<Arc> graph_arcs;
+
+      GraphBuilder(BicexLineIndex li) {
+	 line_index = li;
+	 new_nodes = new HashMap<>();
+	 graph_nodes = null;
+	 graph_arcs = null;
+       }
+
+      @Override public synchronized void buildGraph(BicexLayoutService.LayoutGraph g) {
+	 if (line_index == null) return;
+	 if (graph_nodes == null) buildFlow();
+	 for (Node n : graph_nodes) g.addNode(n,n.getLine());
+	 for (Arc a : graph_arcs) g.addArc(a);
+       }
+
+      private void buildFlow() {
+	 Map<Integer,Node> nodes = new HashMap<>();
+	 List<Node> nlist = new ArrayList<>();
+	 List<Arc> alist = new ArrayList<>();
+
+	 int [] lines = line_index.getFlowLines();
+	 for (int i = 0; i < lines.length; ++i) {
+	    int line = lines[i];
+	    PetalNodeShape shape;
+	    int nsucc = line_index.getSuccessorCount(line);
+	    if (i == 0) shape = PetalNodeShape.TRIANGLE_DOWN;
+	    else if (nsucc == 0) shape = PetalNodeShape.TRIANGLE;
+	    else if (nsucc > 1) shape = PetalNodeShape.DIAMOND;
+	    else shape = PetalNodeShape.RECTANGLE;
+	    Node n = new Node(line,shape);
+	    nodes.put(line,n);
+	    nlist.add(n);
+	  }
+
+	 for (int i = 0; i < line_index.getTransitionCount(); ++i) {
+	    int from = line_index.getTransitionFrom(i);
+	    int to = line_index.getTransitionTo(i);
+	    Arc a = new Arc(nodes.get(from),nodes.get(to),line_index.getTransitionFrequency(i));
+	    if (line_index.findTransition(to,from) >= 0) a.setSplineArc(true);
+	    alist.add(a);
+	  }
+
+	 new_nodes = nodes;
+	 graph_arcs = alist;
+	 graph_nodes = nlist;
+       }
+
+      @Override public void graphInstalled(BicexLayoutService.LayoutGraph g) {
+	 line_nodes = new_nodes;
+	 setCurrentNode(null);
+	 updateTime();
+       }
+
+    }	// end of inner class GraphBuilder
+
 }	// end of inner class LineFlowGraph
 
 
@@ -372,17 +385,17 @@ private class Arc extends PetalArcDefault
 
    private static final long serialVersionUID = 1;
 
-   Arc(Node f,Node t) {
+   Arc(Node f,Node t,int count) {
       super(f,t);
-      arc_weight = 1;
+      arc_weight = count;
       setTargetEnd(new PetalArcEndDefault(PetalArcEnd.PETAL_ARC_END_ARROW));
+      if (arc_weight > 1) {
+	 float wt = (float) (1+Math.log(arc_weight)/Math.log(2));
+	 setStroke(new BasicStroke(wt));
+       }
     }
 
-   void addInstance() {
-      arc_weight++;
-      float wt = (float) (1+Math.log(arc_weight)/Math.log(2));
-      setStroke(new BasicStroke(wt));
-    }
+   int getCount()			{ return arc_weight; }
 
 }	// end of inner class Arc
 
@@ -0,0 +1,397 @@
+/********************************************************************************/
+/*										*/
+/*		BicexLineIndex.java						*/
+/*										*/
+/*	Precomputed index of the lines executed in a context			*/
+/*										*/
+/********************************************************************************/
+/*	Copyright 2011 Brown University -- Steven P. Reiss		      */
+/*********************************************************************************
+ *  Copyright 2011, Brown University, Providence, RI.				 *
+ *										 *
+ *			  All Rights Reserved					 *
+ *										 *
+ * This program and the accompanying materials are made available under the	 *
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, *
+ * and is available at								 *
+ *	http://www.eclipse.org/legal/epl-v10.html				 *
+ *										 *
+ ********************************************************************************/
+
+/* SVN: $Id$ */
+
+
+
+package edu.brown.cs.seedebb.bicex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ *	Index built once from the *LINE* pseudo-variable of a context.  It
+ *	holds the times at which the line changes with the parsed line numbers,
+ *	the sorted times at which each line starts executing, and the distinct
+ *	transitions between consecutive (nonzero) lines with their counts.
+ *	The number of times each line executed is also kept in line order.
+ *	Transitions are found through a table keyed by the packed (from,to)
+ *	pair.
+ **/
+
+class BicexLineIndex implements BicexConstants
+{
+
+
+/********************************************************************************/
+/*										*/
+/*	Private Storage 							*/
+/*										*/
+/********************************************************************************/
+
+private long [] 		change_times;
+private int []			change_lines;
+private int			change_count;
+private Map<Integer,long []>	line_times;
+private int []			transition_from;
+private int []			transition_to;
+private int []			transition_counts;
+private int			transition_count;
+private int []			hit_lines;
+private int []			hit_counts;
+private int []			successor_counts;
+private int []			flow_lines;
+private TransitionTable 	transition_table;
+
+private static final long [] NO_TIMES = new long[0];
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Constructors								*/
+/*										*/
+/********************************************************************************/
+
+BicexLineIndex(BicexValue lnv)
+{
+   change_count = lnv.getTimeChangeCount();
+   change_times = new long[change_count];
+   change_lines = new int[change_count];
+
+   Map<Integer,int []> linects = new HashMap<>();
+   for (int i = 0; i < change_count; ++i) {
+      long t = lnv.getTimeChange(i);
+      int line = parseLine(lnv.getStringValue(t+1));
+      change_times[i] = t;
+      change_lines[i] = line;
+      if (line <= 0) continue;
+      int [] ct = linects.get(line);
+      if (ct == null) {
+	 ct = new int[1];
+	 linects.put(line,ct);
+       }
+      ++ct[0];
+    }
+
+   hit_lines = new int[linects.size()];
+   int nhit = 0;
+   for (Integer line : linects.keySet()) hit_lines[nhit++] = line;
+   Arrays.sort(hit_lines);
+   hit_counts = new int[nhit];
+
+   line_times = new HashMap<>();
+   for (int i = 0; i < nhit; ++i) {
+      int [] ct = linects.get(hit_lines[i]);
+      hit_counts[i] = ct[0];
+      line_times.put(hit_lines[i],new long[ct[0]]);
+      ct[0] = 0;
+    }
+
+   transition_table = new TransitionTable();
+   transition_from = new int[16];
+   transition_to = new int[16];
+   transition_counts = new int[16];
+   transition_count = 0;
+   flow_lines = new int[nhit];
+   int nflow = 0;
+
+   int pline = 0;
+   for (int i = 0; i < change_count; ++i) {
+      int line = change_lines[i];
+      if (line <= 0) continue;
+      int [] ct = linects.get(line);
+      if (ct[0] == 0) flow_lines[nflow++] = line;
+      line_times.get(line)[ct[0]++] = change_times[i];
+      if (pline > 0) {
+	 long key = transitionKey(pline,line);
+	 int eidx = transition_table.get(key);
+	 if (eidx < 0) {
+	    addTransition(pline,line);
+	    transition_table.put(key,transition_count-1);
+	  }
+	 else ++transition_counts[eidx];
+       }
+      pline = line;
+    }
+
+   successor_counts = new int[nhit];
+   for (int i = 0; i < transition_count; ++i) {
+      int idx = Arrays.binarySearch(hit_lines,transition_from[i]);
+      ++successor_counts[idx];
+    }
+}
+
+
+
+private static long transitionKey(int from,int to)
+{
+   return (((long) from) << 32) | (to & 0xffffffffL);
+}
+
+
+
+private static int parseLine(String xv)
+{
+   if (xv == null) return -1;
+
+   try {
+      return Integer.parseInt(xv);
+    }
+   catch (NumberFormatException e) { }
+
+   return -1;
+}
+
+
+
+private void addTransition(int from,int to)
+{
+   if (transition_count == transition_from.length) {
+      int sz = transition_count * 2;
+      transition_from = Arrays.copyOf(transition_from,sz);
+      transition_to = Arrays.copyOf(transition_to,sz);
+      transition_counts = Arrays.copyOf(transition_counts,sz);
+    }
+
+   transition_from[transition_count] = from;
+   transition_to[transition_count] = to;
+   transition_counts[transition_count] = 1;
+   ++transition_count;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Time-ordered access							*/
+/*										*/
+/********************************************************************************/
+
+int getChangeCount()				{ return change_count; }
+long getChangeTime(int idx)			{ return change_times[idx]; }
+
+/**
+ *	Return the line executed starting at the given change, 0 if not in
+ *	user code and -1 if the value could not be interpreted.
+ **/
+
+int getChangeLine(int idx)			{ return change_lines[idx]; }
+
+
+/**
+ *	Return the index of the last change at or before t, -1 if none.
+ **/
+
+int findChange(long t)
+{
+   int idx = Arrays.binarySearch(change_times,0,change_count,t);
+   if (idx >= 0) return idx;
+   return -idx-2;
+}
+
+
+/**
+ *	Return the line executing at time t, -1 if not known.
+ **/
+
+int getLineAtTime(long t)
+{
+   int idx = findChange(t);
+   if (idx < 0) return -1;
+   return change_lines[idx];
+}
+
+
+/**
+ *	Return the time the line executing at t started, -1 if none.
+ **/
+
+long getLineStartTime(long t)
+{
+   int idx = findChange(t);
+   if (idx < 0) return -1;
+   return change_times[idx];
+}
+
+
+/**
+ *	Return the time the line executing at t ends, -1 if it doesn't.
+ **/
+
+long getLineEndTime(long t)
+{
+   int idx = findChange(t);
+   if (idx+1 >= change_count) return -1;
+   return change_times[idx+1];
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Line-ordered access							*/
+/*										*/
+/********************************************************************************/
+
+Collection<Integer> getLines()			{ return line_times.keySet(); }
+
+boolean hasLine(int line)			{ return line_times.containsKey(line); }
+
+
+/**
+ *	Return the sorted times at which the given line started executing.
+ *	The array is shared and should not be modified.
+ **/
+
+long [] getLineTimes(int line)
+{
+   long [] rslt = line_times.get(line);
+   if (rslt == null) return NO_TIMES;
+   return rslt;
+}
+
+
+int getLineCount(int line)			{ return getLineTimes(line).length; }
+
+
+/**
+ *	Return the executed lines in increasing order and, in parallel, the
+ *	number of times each executed.	The arrays are shared and should not
+ *	be modified.
+ **/
+
+int [] getHitLines()				{ return hit_lines; }
+int [] getHitCounts()				{ return hit_counts; }
+
+
+/**
+ *	Return the executed lines in the order they were first executed.
+ *	The array is shared and should not be modified.
+ **/
+
+int [] getFlowLines()				{ return flow_lines; }
+
+
+/**
+ *	Return the number of distinct lines executed directly after line.
+ **/
+
+int getSuccessorCount(int line)
+{
+   int idx = Arrays.binarySearch(hit_lines,line);
+   if (idx < 0) return 0;
+   return successor_counts[idx];
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Transition access							*/
+/*										*/
+/********************************************************************************/
+
+int getTransitionCount()			{ return transition_count; }
+int getTransitionFrom(int idx)			{ return transition_from[idx]; }
+int getTransitionTo(int idx)			{ return transition_to[idx]; }
+int getTransitionFrequency(int idx)		{ return transition_counts[idx]; }
+
+
+/**
+ *	Return the index of the transition from one line to another, -1 if
+ *	it never occurs.
+ **/
+
+int findTransition(int from,int to)
+{
+   if (from <= 0 || to <= 0) return -1;
+   return transition_table.get(transitionKey(from,to));
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	TransitionTable -- open addressing map from packed pair to index	*/
+/*										*/
+/********************************************************************************/
+
+private static class TransitionTable {
+
+   private long [] table_keys;
+   private int [] table_values;
+   private int table_count;
+
+   TransitionTable() {
+      table_keys = new long[64];
+      table_values = new int[64];
+      table_count = 0;
+    }
+
+   int get(long key) {
+      int mask = table_keys.length - 1;
+      for (int i = hash(key) & mask; table_keys[i] != 0; i = (i+1) & mask) {
+	 if (table_keys[i] == key) return table_values[i];
+       }
+      return -1;
+    }
+
+   // keys are never 0 since lines are positive
+   void put(long key,int value) {
+      if (2*(table_count+1) > table_keys.length) grow();
+      int mask = table_keys.length - 1;
+      int i = hash(key) & mask;
+      while (table_keys[i] != 0 && table_keys[i] != key) i = (i+1) & mask;
+      if (table_keys[i] == 0) ++table_count;
+      table_keys[i] = key;
+      table_values[i] = value;
+    }
+
+   private void grow() {
+      long [] okeys = table_keys;
+      int [] ovalues = table_values;
+      table_keys = new long[okeys.length*2];
+      table_values = new int[okeys.length*2];
+      table_count = 0;
+      for (int i = 0; i < okeys.length; ++i) {
+	 if (okeys[i] != 0) put(okeys[i],ovalues[i]);
+       }
+    }
+
+   private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 32);
+    }
+
+}	// end of inner class TransitionTable
+
+
+
+}	// end of class BicexLineIndex
+
+
+
+
+/* end of BicexLineIndex.java */
@@ -29,9 +29,12 @@ import edu.brown.cs.ivy.xml.IvyXml;
 import org.w3c.dom.Element;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 class BicexOutputModel implements BicexConstants
 {
@@ -65,7 +68,7 @@ BicexOutputModel()
 /*										*/
 /********************************************************************************/
 
-List<FileData> getOutputFiles()
+synchronized List<FileData> getOutputFiles()
 {
    return new ArrayList<FileData>(file_map.values());
 }
@@ -78,17 +81,33 @@ List<FileData> getOutputFiles()
 /*										*/
 /********************************************************************************/
 
-void update(Element xml)
+/**
+ *	Update the model from a new IOMODEL.  The data for a descriptor that
+ *	is still present is kept; writes that match what is already there are
+ *	skipped and only the ones after the first difference are added.
+ **/
+
+synchronized void update(Element xml)
 {
    if (xml == null) return;
    if (!IvyXml.isElement(xml,"IOMODEL")) {
       xml = IvyXml.getChild(xml,"IOMODEL");
     }
-   file_map.clear();
+
+   Set<Integer> found = new HashSet<>();
    for (Element oute : IvyXml.children(xml,"OUTPUT")) {
-      FileData fd = new FileData(oute);
-      file_map.put(fd.getFileDescriptor(),fd);
+      int fd = IvyXml.getAttrInt(oute,"FD");
+      FileData fdata = file_map.get(fd);
+      if (fdata == null || fdata.isBinary() != IvyXml.getAttrBool(oute,"BINARY")) {
+	 fdata = new FileData(oute);
+	 file_map.put(fd,fdata);
+       }
+      else {
+	 fdata.merge(oute);
+       }
+      found.add(fd);
     }
+   file_map.keySet().retainAll(found);
 }
 
 
@@ -99,40 +118,260 @@ void update(Element xml)
 /*										*/
 /********************************************************************************/
 
+/**
+ *	Output written to a file descriptor.  The text of all the writes is
+ *	kept in a single append-only buffer together with sorted arrays of the
+ *	time of each write and the buffer offset at which it ends.  The
+ *	contents at a given time are a prefix of the buffer found by binary
+ *	search and returned as a view without copying.	The offsets at which
+ *	lines start are kept as well so the output can be displayed a line at
+ *	a time.
+ **/
+
 static class FileData {
 
    private int file_fd;
    private String file_path;
    private boolean is_binary;
-   private List<WriteData> file_writes;
-   private long last_time;
-   private String last_content;
+   private StringBuilder output_text;
+   private long [] write_times;
+   private int [] write_ends;
+   private int write_count;
+   private boolean times_sorted;
+   private int update_count;
+   private int [] line_starts;
+   private int line_count;
+   private int max_line;
 
    FileData(Element xml) {
       file_fd = IvyXml.getAttrInt(xml,"FD");
       file_path = IvyXml.getAttrString(xml,"PATH");
       is_binary = IvyXml.getAttrBool(xml,"BINARY");
-      file_writes = new ArrayList<>();
+      output_text = new StringBuilder();
+      write_times = new long[16];
+      write_ends = new int[16];
+      write_count = 0;
+      times_sorted = true;
+      update_count = 0;
+      line_starts = new int[64];
+      line_count = 1;
+      max_line = 0;
       for (Element we : IvyXml.children(xml,"WRITE")) {
-	 WriteData wd = new WriteData(we,is_binary);
-	 file_writes.add(wd);
+	 addWrite(IvyXml.getAttrLong(we,"WHEN"),IvyXml.getTextElement(we,"DATA"));
        }
-      last_time = -1;
-      last_content = null;
     }
 
    int getFileDescriptor()			{ return file_fd; }
    String getFilePath() 			{ return file_path; }
-   String getFileContents(long when) {
-      if (last_time == when) return last_content;
-      last_time = when;
-      StringBuilder buf = new StringBuilder();
-      for (WriteData wd : file_writes) {
-	 if (wd.getTime() > when) break;
-	 buf.append(wd.getContent());
+   boolean isBinary()				{ return is_binary; }
+   int getWriteCount()				{ return write_count; }
+   synchronized int getUpdateCount()		{ return update_count; }
+
+   /**
+    *	Return the contents of the file as of the given time.  The result
+    *	is a view on the output buffer and is only valid until the file is
+    *	next updated.
+    **/
+
+   synchronized CharSequence getFileContents(long when) {
+      return new ContentView(output_text,getContentLength(when));
+    }
+
+   synchronized int getContentLength(long when) {
+      int ct = findWriteCount(when);
+      if (ct == 0) return 0;
+      return write_ends[ct-1];
+    }
+
+   /**
+    *	Return the start and end offsets of the last write at or before
+    *	the given time, null if there is none.
+    **/
+
+   synchronized int [] getWriteRange(long when) {
+      int ct = findWriteCount(when);
+      if (ct == 0) return null;
+      int start = (ct == 1 ? 0 : write_ends[ct-2]);
+      return new int [] { start, write_ends[ct-1] };
+    }
+
+   /**
+    *	Return the number of lines in the first len characters.
+    **/
+
+   synchronized int getLineCount(int len) {
+      return upperBound(line_starts,line_count,len);
+    }
+
+   /**
+    *	Return the offset of the end of the given line (excluding the
+    *	newline) within the first len characters.
+    **/
+
+   synchronized int getLineEnd(int line,int len) {
+      int end = len;
+      if (line+1 < line_count && line_starts[line+1] <= len) end = line_starts[line+1]-1;
+      return Math.max(end,line_starts[line]);
+    }
+
+   synchronized int findLine(int offset) {
+      return Math.max(0,upperBound(line_starts,line_count,offset)-1);
+    }
+
+   synchronized int getMaxLineLength() 	{ return max_line; }
+
+   /**
+    *	Return the given line within the first len characters.	Since the
+    *	buffer can be truncated by a merge before the display is updated,
+    *	len is clamped to the current contents; returns null if the line
+    *	no longer exists.
+    **/
+
+   synchronized LineText getLine(int line,int len) {
+      len = Math.min(len,output_text.length());
+      if (line >= line_count || line_starts[line] > len) return null;
+      int start = line_starts[line];
+      int end = getLineEnd(line,len);
+      return new LineText(start,output_text.substring(start,end));
+    }
+
+   /**
+    *	Return the offset of the next occurrence of text at or after from
+    *	that ends within the first len characters, -1 if none.
+    **/
+
+   synchronized int findText(String text,int from,int len) {
+      if (text == null || text.length() == 0) return -1;
+      int idx = output_text.indexOf(text,from);
+      if (idx < 0 || idx + text.length() > len) return -1;
+      return idx;
+    }
+
+   private static int upperBound(long [] data,int ct,long v) {
+      int lo = 0;
+      int hi = ct;
+      while (lo < hi) {
+	 int mid = (lo+hi) >>> 1;
+	 if (data[mid] <= v) lo = mid+1;
+	 else hi = mid;
+       }
+      return lo;
+    }
+
+   private static int upperBound(int [] data,int ct,int v) {
+      int lo = 0;
+      int hi = ct;
+      while (lo < hi) {
+	 int mid = (lo+hi) >>> 1;
+	 if (data[mid] <= v) lo = mid+1;
+	 else hi = mid;
+       }
+      return lo;
+    }
+
+   private int findWriteCount(long when) {
+      if (!times_sorted) {
+	 for (int i = 0; i < write_count; ++i) {
+	    if (write_times[i] > when) return i;
+	  }
+	 return write_count;
+       }
+
+      return upperBound(write_times,write_count,when);
+    }
+
+   /**
+    *	Merge a new version of the output for this descriptor.	The common
+    *	prefix of writes is kept and the rest replaced.  Returns true if
+    *	anything changed.
+    **/
+
+   synchronized boolean merge(Element xml) {
+      boolean chng = false;
+      String path = IvyXml.getAttrString(xml,"PATH");
+      if (path == null ? file_path != null : !path.equals(file_path)) {
+	 file_path = path;
+	 chng = true;
+       }
+
+      int idx = 0;
+      boolean match = true;
+      for (Element we : IvyXml.children(xml,"WRITE")) {
+	 long when = IvyXml.getAttrLong(we,"WHEN");
+	 String text = IvyXml.getTextElement(we,"DATA");
+	 if (match) {
+	    if (idx < write_count && sameWrite(idx,when,text)) {
+	       ++idx;
+	       continue;
+	     }
+	    match = false;
+	    truncate(idx);
+	  }
+	 addWrite(when,text);
+	 chng = true;
+       }
+      if (match && idx < write_count) {
+	 truncate(idx);
+	 chng = true;
+       }
+
+      if (chng) ++update_count;
+      return chng;
+    }
+
+   private boolean sameWrite(int idx,long when,String text) {
+      if (write_times[idx] != when) return false;
+      int start = (idx == 0 ? 0 : write_ends[idx-1]);
+      int len = write_ends[idx] - start;
+      if (text == null) return len == 0;
+      if (text.length() != len) return false;
+      for (int i = 0; i < len; ++i) {
+	 if (output_text.charAt(start+i) != text.charAt(i)) return false;
+       }
+      return true;
+    }
+
+   private void truncate(int ct) {
+      write_count = ct;
+      int len = (ct == 0 ? 0 : write_ends[ct-1]);
+      output_text.setLength(len);
+      times_sorted = true;
+      for (int i = 1; i < ct; ++i) {
+	 if (write_times[i-1] > write_times[i]) times_sorted = false;
+       }
+      line_count = upperBound(line_starts,line_count,len);
+      max_line = 0;
+      for (int i = 0; i < line_count; ++i) {
+	 max_line = Math.max(max_line,getLineEnd(i,len) - line_starts[i]);
+       }
+    }
+
+   private void addWrite(long when,String text) {
+      if (write_count >= write_times.length) {
+	 int sz = write_count * 2;
+	 write_times = Arrays.copyOf(write_times,sz);
+	 write_ends = Arrays.copyOf(write_ends,sz);
+       }
+      if (write_count > 0 && write_times[write_count-1] > when) times_sorted = false;
+      if (text != null) {
+	 int base = output_text.length();
+	 output_text.append(text);
+	 for (int idx = text.indexOf('\n'); idx >= 0; idx = text.indexOf('\n',idx+1)) {
+	    addLine(base+idx+1);
+	  }
+	 max_line = Math.max(max_line,output_text.length() - line_starts[line_count-1]);
+       }
+      write_times[write_count] = when;
+      write_ends[write_count] = output_text.length();
+      ++write_count;
+    }
+
+   private void addLine(int start) {
+      if (line_count >= line_starts.length) {
+	 line_starts = Arrays.copyOf(line_starts,line_count*2);
        }
-      last_content = buf.toString();
-      return last_content;
+      max_line = Math.max(max_line,start - 1 - line_starts[line_count-1]);
+      line_starts[line_count++] = start;
     }
 
    @Override public String toString() {
@@ -146,20 +385,60 @@ static class FileData {
 
 
 
-private static class WriteData {
+/**
+ *	Text of a single output line together with its offset.
+ **/
 
-   private long write_time;
-   private String write_text;
+static class LineText {
 
-   WriteData(Element xml,boolean bin) {
-      write_time = IvyXml.getAttrLong(xml,"WHEN");
-      write_text = IvyXml.getTextElement(xml,"DATA");
+   private int line_start;
+   private String line_text;
+
+   LineText(int start,String text) {
+      line_start = start;
+      line_text = text;
+    }
+
+   int getStart()				{ return line_start; }
+   String getText()				{ return line_text; }
+
+}	// end of inner class LineText
+
+
+
+private static class ContentView implements CharSequence {
+
+   private CharSequence base_text;
+   private int start_offset;
+   private int end_offset;
+
+   ContentView(CharSequence base,int len) {
+      this(base,0,len);
     }
 
-   long getTime()				{ return write_time; }
-   String getContent()				{ return write_text; }
+   ContentView(CharSequence base,int start,int end) {
+      base_text = base;
+      start_offset = start;
+      end_offset = end;
+    }
+
+   @Override public int length()		{ return end_offset - start_offset; }
+
+   @Override public char charAt(int idx) {
+      if (idx < 0 || idx >= length()) throw new IndexOutOfBoundsException();
+      return base_text.charAt(start_offset + idx);
+    }
+
+   @Override public CharSequence subSequence(int start,int end) {
+      if (start < 0 || end > length() || start > end) throw new IndexOutOfBoundsException();
+      return new ContentView(base_text,start_offset+start,start_offset+end);
+    }
+
+   @Override public String toString() {
+      return base_text.subSequence(start_offset,end_offset).toString();
+    }
 
-}	// end of inner class WriteData
+}	// end of inner class ContentView
 
 
 
@@ -2,7 +2,7 @@
 /*										*/
 /*		BicexOutputPanel.java						*/
 /*										*/
-/*	description of class							*/
+/*	Panel showing program output with a line-indexed view			*/
 /*										*/
 /********************************************************************************/
 /*	Copyright 2011 Brown University -- Steven P. Reiss		      */
@@ -25,25 +25,38 @@
 package edu.brown.cs.seedebb.bicex;
 
 import edu.brown.cs.seedebb.bicex.BicexOutputModel.FileData;
+import edu.brown.cs.seedebb.bicex.BicexOutputModel.LineText;
+import edu.brown.cs.bubbles.board.BoardColors;
 import edu.brown.cs.bubbles.board.BoardMetrics;
 
+import javax.swing.Box;
 import javax.swing.JComponent;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JTextField;
 import javax.swing.JTree;
 import javax.swing.SwingUtilities;
-import javax.swing.event.TreeExpansionEvent;
-import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 
 import java.awt.BorderLayout;
-import java.util.HashSet;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 class BicexOutputPanel extends BicexPanel implements BicexConstants
 {
@@ -57,6 +70,9 @@ class BicexOutputPanel extends BicexPanel implements BicexConstants
 
 private BicexOutputModel	output_model;
 private OutputModel		tree_model;
+private OutputView		output_view;
+
+private static final int	VIEW_MARGIN = 2;
 
 
 
@@ -83,6 +99,7 @@ BicexOutputPanel(BicexEvaluationViewer ev)
 {
    output_model = eval_viewer.getExecution().getOutputModel();
    tree_model = new OutputModel();
+   output_view = new OutputView();
 
    return new OutputLayout();
 }
@@ -98,13 +115,14 @@ BicexOutputPanel(BicexEvaluationViewer ev)
 @Override void update()
 {
    tree_model.update();
+   output_view.update();
 }
 
 
 
 @Override void updateTime()
 {
-   tree_model.update();
+   output_view.update();
 }
 
 
@@ -123,10 +141,18 @@ private class OutputLayout extends JPanel {
    OutputLayout() {
       super(new BorderLayout());
       output_tree = new OutputTree();
-      add(output_tree,BorderLayout.CENTER);
       Expander exp = new Expander(output_tree);
-      output_tree.addTreeExpansionListener(exp);
       tree_model.addTreeModelListener(exp);
+
+      Box top = Box.createVerticalBox();
+      top.add(output_tree);
+      Box sbx = Box.createHorizontalBox();
+      sbx.add(new JLabel("Find: "));
+      sbx.add(new SearchField());
+      top.add(sbx);
+
+      add(top,BorderLayout.NORTH);
+      add(output_view,BorderLayout.CENTER);
     }
 
 }	// end of inner class OutputLayout
@@ -140,81 +166,74 @@ private class OutputLayout extends JPanel {
 /*										*/
 /********************************************************************************/
 
-private class OutputTree extends JTree {
+private class OutputTree extends JTree implements TreeSelectionListener {
 
    private static final long serialVersionUID = 1;
 
    OutputTree() {
       super(tree_model);
       setRootVisible(false);
+      addTreeSelectionListener(this);
+    }
+
+   @Override public void valueChanged(TreeSelectionEvent evt) {
+      TreePath tp = evt.getNewLeadSelectionPath();
+      if (tp == null) return;
+      Object vn = tp.getLastPathComponent();
+      if (vn instanceof FileData) {
+	 BoardMetrics.noteCommand("BICEX","OutputSelect");
+	 output_view.setFile((FileData) vn);
+       }
     }
 
 }	// end of inner class OutputTree
 
 
 
-private class Expander implements TreeExpansionListener, TreeModelListener, Runnable {
+private class Expander implements TreeModelListener, Runnable {
 
-   private Set<String>	expand_set;
    private JTree for_tree;
 
    Expander(JTree tr) {
-      expand_set = new HashSet<String>();
       for_tree = tr;
     }
 
-   @Override public void treeCollapsed(TreeExpansionEvent evt)	{
-      BoardMetrics.noteCommand("BICEX","OutputCollapse");
-      Object tn = evt.getPath().getLastPathComponent();
-      expand_set.remove(tn.toString());
-    }
-
-   @Override public void treeExpanded(TreeExpansionEvent evt)	{
-      BoardMetrics.noteCommand("BICEX","OutputExpand");
-      Object tn = evt.getPath().getLastPathComponent();
-      expand_set.add(tn.toString());
-    }
-
    @Override public void treeNodesChanged(TreeModelEvent e)	{ }
-   @Override public void treeNodesInserted(TreeModelEvent e)	{ }
    @Override public void treeNodesRemoved(TreeModelEvent e)	{ }
+   @Override public void treeNodesInserted(TreeModelEvent e)	{
+      SwingUtilities.invokeLater(this);
+    }
    @Override public void treeStructureChanged(TreeModelEvent e) {
       SwingUtilities.invokeLater(this);
     }
 
    @Override public void run() {
-      checkExpand();
+      try {
+	 for_tree.expandPath(new TreePath(tree_model.getRoot()));
+       }
+      catch (ArrayIndexOutOfBoundsException e) { }
     }
 
-   private void checkExpand() {
-      checkExpandNode(null,tree_model.getRoot());
-    }
+}	// end of inner class Expander
 
-   private void checkExpandNode(TreePath tp,Object vn) {
-      boolean exp = false;
 
-      if (tp == null) exp = true;
-      else if (vn instanceof TreeNode) exp = true;		// root
-      else if (vn instanceof BicexOutputModel.FileData) {
-	 if (expand_set.contains(vn.toString())) exp = true;
-       }
 
-      if (exp) {
-	 if (tp == null) tp = new TreePath(vn);
-	 else tp = tp.pathByAddingChild(vn);
-	 try {
-	    for_tree.expandPath(tp);
-	  }
-	 catch (ArrayIndexOutOfBoundsException e) {
-	    return;
-	  }
-	 for (int i = 0; i < tree_model.getChildCount(vn); ++i) {
-	    checkExpandNode(tp,tree_model.getChild(vn,i));
-	  }
-       }
+private class SearchField extends JTextField implements ActionListener {
+
+   private static final long serialVersionUID = 1;
+
+   SearchField() {
+      super(20);
+      setMaximumSize(new Dimension(Integer.MAX_VALUE,getPreferredSize().height));
+      addActionListener(this);
     }
 
-}	// end of inner class Expander
+   @Override public void actionPerformed(ActionEvent evt) {
+      BoardMetrics.noteCommand("BICEX","OutputSearch");
+      output_view.search(getText());
+    }
+
+}	// end of inner class SearchField
 
 
 
@@ -238,26 +257,49 @@ private class OutputModel extends DefaultTreeModel {
       file_data = null;
     }
 
+   /**
+    *	Update the list of output files.  New descriptors are inserted; the
+    *	tree is only reloaded if a descriptor goes away.
+    **/
+
    void update() {
-       file_data = output_model.getOutputFiles();
-       reload();
+      List<FileData> nfiles = output_model.getOutputFiles();
+
+      if (file_data == null || !nfiles.containsAll(file_data)) {
+	 file_data = nfiles;
+	 reload();
+       }
+      else {
+	 List<FileData> added = new ArrayList<>();
+	 for (FileData fd : nfiles) {
+	    if (!file_data.contains(fd)) added.add(fd);
+	  }
+	 if (!added.isEmpty()) {
+	    int [] idxs = new int[added.size()];
+	    for (int i = 0; i < idxs.length; ++i) {
+	       idxs[i] = file_data.size();
+	       file_data.add(added.get(i));
+	     }
+	    fireTreeNodesInserted(this,new Object [] { root_node },idxs,added.toArray());
+	  }
+       }
+
+      FileData cur = output_view.getFile();
+      if (cur == null || !file_data.contains(cur)) {
+	 output_view.setFile(file_data.isEmpty() ? null : file_data.get(0));
+       }
     }
 
    @Override public Object getChild(Object par,int idx) {
       if (par == root_node) {
 	 return file_data.get(idx);
        }
-      else if (par instanceof FileData) {
-	 FileData fd = (FileData) par;
-	 return getContent(fd,getExecution().getCurrentTime());
-       }
       return null;
     }
 
    @Override public int getChildCount(Object par) {
       if (file_data == null) return 0;
       if (par == root_node) return file_data.size();
-      else if (par instanceof FileData) return 1;
       return 0;
     }
 
@@ -267,7 +309,7 @@ private class OutputModel extends DefaultTreeModel {
     }
 
    @Override public boolean isLeaf(Object node) {
-      if (node == root || node instanceof FileData) return false;
+      if (node == root) return false;
       return true;
     }
 
@@ -275,23 +317,167 @@ private class OutputModel extends DefaultTreeModel {
 
 
 
-private static String getContent(FileData fd,long when)
-{
-   StringBuffer buf = new StringBuffer();
-   buf.append("<html>");
-   buf.append("<table cellpadding='1' cellspacing='2' align='left' style='border: 1px solid black;'>");
-   buf.append("<tr><td>Descriptor</td><td>");
-   buf.append(fd.getFileDescriptor());
-   buf.append("</td></tr>");
-   buf.append("<tr><td>Path</td><td>");
-   buf.append(fd.getFilePath());
-   buf.append("</td></tr>");
-   buf.append("<tr><td>Contents</td><td><pre>");
-   buf.append(fd.getFileContents(when));
-   buf.append("</pre></td></tr>");
-   buf.append("</table>");
-   return buf.toString();
-}
+
+/********************************************************************************/
+/*										*/
+/*	Line-indexed output view						*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	View of the contents of one output file as of the current time.  Only
+ *	the lines that intersect the clip are fetched and drawn, using the
+ *	line offsets kept by the file.	The last write at or before the
+ *	current time and the current search match are highlighted.
+ **/
+
+private class OutputView extends JComponent {
+
+   private transient FileData for_file;
+   private int content_length;
+   private int update_count;
+   private int [] current_write;
+   private int match_start;
+   private int match_end;
+
+   private static final long serialVersionUID = 1;
+
+   OutputView() {
+      setFont(new Font(Font.MONOSPACED,Font.PLAIN,12));
+      setOpaque(true);
+      for_file = null;
+      content_length = 0;
+      update_count = -1;
+      current_write = null;
+      match_start = -1;
+      match_end = -1;
+    }
+
+   FileData getFile()				{ return for_file; }
+
+   void setFile(FileData fd) {
+      if (fd == for_file) return;
+      for_file = fd;
+      update_count = -1;
+      match_start = -1;
+      match_end = -1;
+      update();
+    }
+
+   void update() {
+      int len = 0;
+      int upd = -1;
+      int [] wr = null;
+      if (for_file != null) {
+	 long when = getExecution().getCurrentTime();
+	 len = for_file.getContentLength(when);
+	 upd = for_file.getUpdateCount();
+	 wr = for_file.getWriteRange(when);
+       }
+      boolean resize = (len != content_length || upd != update_count);
+      boolean wchng = !Arrays.equals(wr,current_write);
+      if (!resize && !wchng) return;
+
+      content_length = len;
+      update_count = upd;
+      current_write = wr;
+      if (match_end > len) {
+	 match_start = -1;
+	 match_end = -1;
+       }
+
+      if (resize) {
+	 setSizes();
+	 revalidate();
+       }
+      if (wchng && wr != null) showOffset(wr[0]);
+      repaint();
+    }
+
+   void search(String text) {
+      if (for_file == null || text == null || text.length() == 0) return;
+
+      int from = (match_start >= 0 ? match_start+1 : 0);
+      int idx = for_file.findText(text,from,content_length);
+      if (idx < 0 && from > 0) idx = for_file.findText(text,0,content_length);
+      if (idx < 0) {
+	 match_start = -1;
+	 match_end = -1;
+       }
+      else {
+	 match_start = idx;
+	 match_end = idx + text.length();
+	 showOffset(idx);
+       }
+      repaint();
+    }
+
+   private void showOffset(int offset) {
+      int line = for_file.findLine(offset);
+      FontMetrics fm = getFontMetrics(getFont());
+      int lh = fm.getHeight();
+      scrollRectToVisible(new Rectangle(0,VIEW_MARGIN + line*lh,1,lh));
+    }
+
+   private void setSizes() {
+      int lines = 0;
+      int cols = 0;
+      if (for_file != null) {
+	 lines = for_file.getLineCount(content_length);
+	 cols = for_file.getMaxLineLength();
+       }
+      FontMetrics fm = getFontMetrics(getFont());
+      Dimension sz = new Dimension(cols * fm.charWidth('m') + 2*VIEW_MARGIN,
+	    lines * fm.getHeight() + 2*VIEW_MARGIN);
+      setPreferredSize(sz);
+    }
+
+   @Override protected void paintComponent(Graphics g) {
+      Rectangle clip = g.getClipBounds();
+      if (clip == null) clip = new Rectangle(0,0,getWidth(),getHeight());
+      g.setColor(BoardColors.getColor("Bicex.OutputBackground"));
+      g.fillRect(clip.x,clip.y,clip.width,clip.height);
+      if (for_file == null) return;
+
+      g.setFont(getFont());
+      FontMetrics fm = g.getFontMetrics();
+      int lh = fm.getHeight();
+      int nline = for_file.getLineCount(content_length);
+      int first = Math.max(0,(clip.y - VIEW_MARGIN) / lh);
+      int last = Math.min(nline,(clip.y + clip.height - VIEW_MARGIN) / lh + 1);
+      Color wc = BoardColors.getColor("Bicex.OutputCurrentWrite");
+      Color mc = BoardColors.getColor("Bicex.OutputMatch");
+      Color tc = BoardColors.getColor("Bicex.OutputText");
+
+      for (int i = first; i < last; ++i) {
+	 LineText lt = for_file.getLine(i,content_length);
+	 if (lt == null) break;
+	 int start = lt.getStart();
+	 String text = lt.getText();
+	 int y = VIEW_MARGIN + i*lh;
+	 if (current_write != null) {
+	    highlight(g,fm,text,start,y,current_write[0],current_write[1],wc);
+	  }
+	 if (match_start >= 0) {
+	    highlight(g,fm,text,start,y,match_start,match_end,mc);
+	  }
+	 g.setColor(tc);
+	 g.drawString(text,VIEW_MARGIN,y + fm.getAscent());
+       }
+    }
+
+   private void highlight(Graphics g,FontMetrics fm,String text,int start,int y,
+	 int hstart,int hend,Color c) {
+      int s = Math.max(hstart,start) - start;
+      int e = Math.min(hend,start + text.length()) - start;
+      if (s >= e) return;
+      int x0 = VIEW_MARGIN + fm.stringWidth(text.substring(0,s));
+      int x1 = VIEW_MARGIN + fm.stringWidth(text.substring(0,e));
+      g.setColor(c);
+      g.fillRect(x0,y,x1-x0,fm.getHeight());
+    }
+
+}	// end of inner class OutputView
 
 
 
@@ -302,4 +488,3 @@ private static String getContent(FileData fd,long when)
 
 
 /* end of BicexOutputPanel.java */
-
@@ -24,11 +24,9 @@
 
 package edu.brown.cs.seedebb.bicex;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 
 class BicexRefValue extends BicexValue implements BicexConstants
@@ -41,9 +39,14 @@ class BicexRefValue extends BicexValue implements BicexConstants
 /*										*/
 /********************************************************************************/
 
-private SortedMap<Long,BicexBaseValue>	value_map;
+private long [] 			value_times;
+private BicexBaseValue []		value_data;
+private int				value_count;
 private long				last_update;
 private BicexBaseValue			last_value;
+private boolean 			sources_detached;
+
+private static final int	INITIAL_SIZE = 4;
 
 
 
@@ -61,9 +64,12 @@ BicexRefValue(BicexBaseValue base)
 
 BicexRefValue(long when,BicexBaseValue base)
 {
-   value_map = null;
+   value_times = null;
+   value_data = null;
+   value_count = 0;
    last_update = -1;
    last_value = null;
+   sources_detached = false;
 
    if (base != null) setValueAt(when,base);
 }
@@ -93,6 +99,22 @@ BicexRefValue(long when,BicexBaseValue base)
 }
 
 
+@Override int getArraySize(long when)
+{
+   BicexBaseValue base = getValueAt(when);
+   if (base == null) return -1;
+   return base.getArraySize(when);
+}
+
+
+@Override BicexValue getArrayElement(long when,int idx)
+{
+   BicexBaseValue base = getValueAt(when);
+   if (base == null) return null;
+   return base.getArrayElement(when,idx);
+}
+
+
 @Override String getStringValue(long when)
 {
    BicexBaseValue base = getValueAt(when);
@@ -131,6 +153,16 @@ BicexRefValue(long when,BicexBaseValue base)
 }
 
 
+@Override void detachValue(Collection<BicexValue> work)
+{
+   if (sources_detached) return;
+   sources_detached = true;
+
+   if (last_value != null) work.add(last_value);
+   for (int i = 0; i < value_count; ++i) work.add(value_data[i]);
+}
+
+
 
 /********************************************************************************/
 /*										*/
@@ -147,42 +179,60 @@ void setValueAt(long when,BicexBaseValue val)
       last_value = val;
     }
    else {
-      if (value_map == null) {
-	 value_map = new TreeMap<Long,BicexBaseValue>();
-	 value_map.put(last_update,last_value);
+      if (value_times == null) {
+	 value_times = new long[INITIAL_SIZE];
+	 value_data = new BicexBaseValue[INITIAL_SIZE];
+	 value_count = 0;
+	 putValue(last_update,last_value);
        }
       if (when >= last_update) {
 	 last_update = when;
 	 last_value = val;
        }
-      value_map.put(when,val);
+      putValue(when,val);
     }
 }
 
 
+/**
+ *	Release any unused space in the timeline once all values are known.
+ **/
+
+void compact()
+{
+   if (value_times == null || value_count == value_times.length) return;
+
+   value_times = Arrays.copyOf(value_times,value_count);
+   value_data = Arrays.copyOf(value_data,value_count);
+}
+
+
 BicexBaseValue getValueAt(long tv)
 {
    if (last_update >= 0) {
       if (tv > last_update || tv == 0) return last_value;
     }
 
-   if (value_map == null) return null;
-   
+   if (value_times == null) return null;
 
-   SortedMap<Long,BicexBaseValue> head = value_map.headMap(tv);
-   if (head.isEmpty()) return null;
+   int idx = findFloor(tv-1);
+   if (idx < 0) return null;
 
-   return value_map.get(head.lastKey());
+   return value_data[idx];
 }
 
 
-@Override List<Integer> getTimeChanges()
+@Override int getTimeChangeCount()
 {
-   List<Integer> rslt = new ArrayList<>();
-   for (Long l : value_map.keySet()) {
-      rslt.add(l.intValue());
-    }
-   return rslt;
+   if (value_times != null) return value_count;
+   if (last_update < 0) return 0;
+   return 1;
+}
+
+@Override long getTimeChange(int idx)
+{
+   if (value_times == null) return last_update;
+   return value_times[idx];
 }
 
 @Override long getUpdateTime(long tv)
@@ -191,12 +241,82 @@ BicexBaseValue getValueAt(long tv)
    if (last_update >= 0) {
       if (tv >= last_update) return last_update;
     }
-   if (value_map == null) return -1;
-   SortedMap<Long,BicexBaseValue> head = value_map.headMap(tv+1);
-   if (head.isEmpty()) return -1;
-   return head.lastKey();
+   if (value_times == null) return -1;
+   int idx = findFloor(tv);
+   if (idx < 0) return -1;
+   return value_times[idx];
+}
+
+@Override boolean sameValue(BicexValue v,Map<BicexValue,BicexValue> done)
+{
+   if (v == this) return true;
+   if (!(v instanceof BicexRefValue)) return false;
+   BicexRefValue rv = (BicexRefValue) v;
+   if (last_update != rv.last_update) return false;
+
+   if (value_times == null || rv.value_times == null) {
+      if (value_times != null || rv.value_times != null) return false;
+      if (last_value == null) return rv.last_value == null;
+      return last_value.sameValue(rv.last_value,done);
+    }
+
+   if (value_count != rv.value_count) return false;
+   for (int i = 0; i < value_count; ++i) {
+      if (value_times[i] != rv.value_times[i]) return false;
+      if (!value_data[i].sameValue(rv.value_data[i],done)) return false;
+    }
+
+   return true;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Timeline maintenance							*/
+/*										*/
+/********************************************************************************/
+
+private void putValue(long when,BicexBaseValue val)
+{
+   int idx = value_count;
+   if (value_count > 0 && when <= value_times[value_count-1]) {
+      idx = Arrays.binarySearch(value_times,0,value_count,when);
+      if (idx >= 0) {
+	 value_data[idx] = val;
+	 return;
+       }
+      idx = -idx-1;
+    }
+
+   if (value_count == value_times.length) {
+      int sz = value_count + value_count/2 + 1;
+      value_times = Arrays.copyOf(value_times,sz);
+      value_data = Arrays.copyOf(value_data,sz);
+    }
+   if (idx < value_count) {
+      System.arraycopy(value_times,idx,value_times,idx+1,value_count-idx);
+      System.arraycopy(value_data,idx,value_data,idx+1,value_count-idx);
+    }
+   value_times[idx] = when;
+   value_data[idx] = val;
+   ++value_count;
 }
 
+
+/**
+ *	Return the index of the last change at or before tv, -1 if none.
+ **/
+
+private int findFloor(long tv)
+{
+   int idx = Arrays.binarySearch(value_times,0,value_count,tv);
+   if (idx >= 0) return idx;
+   return -idx-2;
+}
+
+
+
 @Override boolean isInitializable()
 {
    BicexValue bv = getValueAt(0);
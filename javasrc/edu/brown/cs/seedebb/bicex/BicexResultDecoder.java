@@ -0,0 +1,1083 @@
+/********************************************************************************/
+/*										*/
+/*		BicexResultDecoder.java 					*/
+/*										*/
+/*	Streaming decoder for SEEDEXEC execution results			*/
+/*										*/
+/********************************************************************************/
+/*	Copyright 2011 Brown University -- Steven P. Reiss		      */
+/*********************************************************************************
+ *  Copyright 2011, Brown University, Providence, RI.				 *
+ *										 *
+ *			  All Rights Reserved					 *
+ *										 *
+ * This program and the accompanying materials are made available under the	 *
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, *
+ * and is available at								 *
+ *	http://www.eclipse.org/legal/epl-v10.html				 *
+ *										 *
+ ********************************************************************************/
+
+/* SVN: $Id$ */
+
+
+
+package edu.brown.cs.seedebb.bicex;
+
+import edu.brown.cs.bubbles.board.BoardLog;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *	Decode the result of an execution directly from the message text.
+ *	This builds the context and value structures in a single pass over
+ *	the text without first constructing a DOM for the whole result.  Only
+ *	the (small) IOMODEL and GRAPHICS subtrees are built as DOM fragments
+ *	since the corresponding models work from elements.  If anything goes
+ *	wrong the caller is expected to fall back on the DOM-based decoding.
+ **/
+
+class BicexResultDecoder implements BicexConstants, XMLStreamConstants
+{
+
+
+/********************************************************************************/
+/*										*/
+/*	Private Storage 							*/
+/*										*/
+/********************************************************************************/
+
+private String		message_text;
+private XMLStreamReader xml_reader;
+private int		result_index;
+private boolean 	is_empty;
+private boolean 	error_flag;
+private boolean 	is_complete;
+private long		exec_ticks;
+private long		exec_time;
+private String		thread_id;
+private ExitType	exit_type;
+private String		exit_message;
+private String		exit_stack;
+private BicexBaseValue	exit_value;
+private BicexEvaluationContext root_context;
+private Map<String,BicexValue> static_values;
+private Map<String,BicexBaseValue> known_values;
+private Map<String,BicexBaseValue> previous_values;
+private Element 	iomodel_xml;
+private List<Element>	graphics_xml;
+private Document	fragment_document;
+private long		decode_time;
+private boolean 	lazy_values;
+private int		decoded_count;
+private int		deferred_count;
+private BicexStringTable string_table;
+private Map<String,BicexBaseValue> fragment_values;
+private TagScanner	tag_scanner;
+private int		start_count;
+private int		end_count;
+
+private static XMLInputFactory input_factory;
+
+static {
+   input_factory = XMLInputFactory.newInstance();
+   input_factory.setProperty(XMLInputFactory.SUPPORT_DTD,false);
+   input_factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,false);
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Constructors								*/
+/*										*/
+/********************************************************************************/
+
+BicexResultDecoder(String text)
+{
+   message_text = text;
+   xml_reader = null;
+   result_index = -1;
+   is_empty = false;
+   error_flag = false;
+   is_complete = false;
+   exec_ticks = -1;
+   exec_time = -1;
+   resetContents();
+   known_values = new HashMap<>();
+   previous_values = null;
+   fragment_document = null;
+   decode_time = 0;
+   lazy_values = false;
+   decoded_count = 0;
+   deferred_count = 0;
+   string_table = null;
+   fragment_values = null;
+   tag_scanner = null;
+   start_count = 0;
+   end_count = 0;
+}
+
+
+
+private BicexResultDecoder(String text,Map<String,BicexBaseValue> knownvalues,
+      BicexStringTable strings)
+{
+   this(text);
+   known_values = knownvalues;
+   lazy_values = true;
+   string_table = strings;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Access methods								*/
+/*										*/
+/********************************************************************************/
+
+int getIndex()					{ return result_index; }
+boolean isEmpty()				{ return is_empty; }
+boolean getErrorFlag()				{ return error_flag; }
+boolean isComplete()				{ return is_complete; }
+long getTicks() 				{ return exec_ticks; }
+long getExecTime()				{ return exec_time; }
+int getLength()					{ return message_text.length(); }
+String getText()				{ return message_text; }
+long getDecodeTime()				{ return decode_time; }
+int getDecodedCount()				{ return decoded_count; }
+int getDeferredCount()				{ return deferred_count; }
+
+/**
+ *	Set whether object and array values are decoded only when needed.
+ *	Deferred values keep a reference to the message text.
+ **/
+
+void setLazyValues(boolean fg)			{ lazy_values = fg; }
+
+/**
+ *	Set the table used to share strings and primitive values across
+ *	the results of a session.
+ **/
+
+void setStringTable(BicexStringTable st)	{ string_table = st; }
+
+String getThreadId()				{ return thread_id; }
+ExitType getExitType()				{ return exit_type; }
+String getExitMessage() 			{ return exit_message; }
+String getExitStack()				{ return exit_stack; }
+BicexBaseValue getExitValue()			{ return exit_value; }
+BicexEvaluationContext getRootContext() 	{ return root_context; }
+Map<String,BicexValue> getStaticValues()	{ return static_values; }
+Map<String,BicexBaseValue> getKnownValues()	{ return known_values; }
+Element getIOModel()				{ return iomodel_xml; }
+List<Element> getGraphics()			{ return graphics_xml; }
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Decoding methods							*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Read the top level element of the message.  This is cheap and gives
+ *	the result index so the caller can decide whether to decode the rest.
+ **/
+
+boolean begin()
+{
+   try {
+      xml_reader = input_factory.createXMLStreamReader(new StringReader(message_text));
+      while (xml_reader.hasNext()) {
+	 if (nextEvent() == START_ELEMENT) break;
+       }
+      if (!xml_reader.isStartElement()) return false;
+      result_index = getIntAttr("INDEX");
+      is_empty = getBoolAttr("EMPTY");
+      getContentsAttrs();
+      return true;
+    }
+   catch (XMLStreamException e) {
+      BoardLog.logE("BICEX","Problem starting result decode",e);
+    }
+
+   return false;
+}
+
+
+
+/**
+ *	Decode the body of the result.	Returns false if the stream decoder
+ *	could not handle the message.
+ **/
+
+boolean decode(Map<String,BicexBaseValue> prevvalues)
+{
+   long start = System.currentTimeMillis();
+   previous_values = prevvalues;
+
+   try {
+      boolean havecnts = false;
+      while (nextChild(null)) {
+	 if (isElement("CONTENTS") && !havecnts) {
+	    havecnts = true;
+	    resetContents();
+	    getContentsAttrs();
+	    while (nextChild(null)) {
+	       decodeContentsElement();
+	     }
+	  }
+	 else if (havecnts) skipElement();
+	 else decodeContentsElement();
+       }
+      xml_reader.close();
+    }
+   catch (XMLStreamException | RuntimeException e) {
+      BoardLog.logE("BICEX","Problem decoding result stream",e);
+      return false;
+    }
+   finally {
+      decode_time = System.currentTimeMillis() - start;
+    }
+
+   if (root_context == null) return false;
+   if (iomodel_xml == null) iomodel_xml = getFragmentDocument().createElement("IOMODEL");
+
+   return true;
+}
+
+
+
+private void resetContents()
+{
+   thread_id = null;
+   exit_type = ExitType.NONE;
+   exit_message = null;
+   exit_stack = null;
+   exit_value = null;
+   root_context = null;
+   static_values = new HashMap<>();
+   iomodel_xml = null;
+   graphics_xml = new ArrayList<>();
+}
+
+
+
+private void getContentsAttrs()
+{
+   error_flag = getBoolAttr("ERROR");
+   is_complete = getBoolAttr("COMPLETE");
+   exec_ticks = getLongAttr("TICKS");
+   exec_time = getLongAttr("EXECTIME");
+}
+
+
+
+private void decodeContentsElement() throws XMLStreamException
+{
+   if (isElement("RUNNER") && thread_id == null && root_context == null) {
+      decodeRunner();
+    }
+   else if (isElement("STATICS") && static_values.isEmpty()) {
+      while (nextChild(null)) {
+	 if (isElement("STATIC")) {
+	    String nm = getInternAttr("NAME");
+	    BicexValue cv = decodeRefValue();
+	    static_values.put(nm,cv);
+	  }
+	 else skipElement();
+       }
+    }
+   else if (isElement("IOMODEL") && iomodel_xml == null) {
+      iomodel_xml = buildElement();
+    }
+   else if (isElement("GRAPHICS")) {
+      graphics_xml.add(buildElement());
+    }
+   else skipElement();
+}
+
+
+
+private void decodeRunner() throws XMLStreamException
+{
+   thread_id = getAttr("THREAD");
+   boolean haveret = false;
+
+   while (nextChild(null)) {
+      if (isElement("RETURN") && !haveret) {
+	 haveret = true;
+	 exit_type = getEnumAttr("REASON",ExitType.NONE);
+	 while (nextChild(null)) {
+	    if (isElement("MESSAGE") && exit_message == null) {
+	       exit_message = getElementText();
+	     }
+	    else if (isElement("STACK") && exit_stack == null) {
+	       exit_stack = getElementText();
+	     }
+	    else if (isElement("VALUE") && exit_value == null) {
+	       exit_value = decodeBaseValue(null);
+	     }
+	    else skipElement();
+	  }
+       }
+      else if (isElement("CONTEXT") && root_context == null) {
+	 root_context = decodeContext(null);
+       }
+      else skipElement();
+    }
+}
+
+
+
+private BicexEvaluationContext decodeContext(BicexEvaluationContext par) throws XMLStreamException
+{
+   BicexEvaluationContext ctx = new BicexEvaluationContext(par,getAttr("ID"),
+	 getInternAttr("METHOD"),getInternAttr("FILE"),getLongAttr("START"),getLongAttr("END"));
+
+   while (nextChild(null)) {
+      if (isElement("VARIABLE")) {
+	 String nm = getInternAttr("NAME");
+	 int line = getIntAttr("LINE");
+	 BicexValue cv = decodeRefValue();
+	 ctx.addVariable(nm,line,cv);
+       }
+      else if (isElement("CONTEXT")) {
+	 ctx.addInnerContext(decodeContext(ctx));
+       }
+      else skipElement();
+    }
+
+   return ctx;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Value decoding (mirrors BicexValue.createRefValue/createBaseValue)	*/
+/*										*/
+/********************************************************************************/
+
+private BicexValue decodeRefValue() throws XMLStreamException
+{
+   BicexValue rslt = null;
+   BicexRefValue ref = null;
+   long time0 = -1;
+   List<Long> notostring = null;
+
+   String nm = getInternAttr("NAME");
+   if (nm == null) nm = getAttr("INDEX");
+
+   StringBuilder text = new StringBuilder();
+   while (nextChild(text)) {
+      if (!isElement("VALUE")) {
+	 skipElement();
+	 continue;
+       }
+      long tv = getLongAttr("TIME");
+      if (getBoolAttr("NO_TOSTRING")) {
+	 if (notostring == null) notostring = new ArrayList<>();
+	 notostring.add(tv);
+       }
+      BicexBaseValue bv = decodeBaseValue(nm);
+      if (rslt == null) {
+	 rslt = bv;
+	 time0 = tv;
+       }
+      else if (ref != null) {
+	 ref.setValueAt(tv,bv);
+       }
+      else {
+	 ref = new BicexRefValue(time0,(BicexBaseValue) rslt);
+	 ref.setValueAt(tv,bv);
+	 rslt = ref;
+       }
+    }
+
+   String tsv = (text.length() > 0 ? text.toString() : null);
+
+   if (notostring != null && tsv != null) {
+      // the string value is the text of the enclosing element
+      for (Long tv : notostring) {
+	 BicexBaseValue bv = BicexBaseValue.createBaseValue(tsv);
+	 if (ref != null) ref.setValueAt(tv,bv);
+	 else rslt = bv;
+       }
+    }
+
+   if (nm != null && nm.equals("@toString")) {
+      if (rslt == null && tsv != null) {
+	 rslt = BicexBaseValue.createBaseValue(tsv);
+       }
+    }
+
+   if (ref != null) ref.compact();
+
+   return rslt;
+}
+
+
+
+private BicexBaseValue decodeBaseValue(String name) throws XMLStreamException
+{
+   boolean isobj = getBoolAttr("OBJECT");
+   boolean isarr = getBoolAttr("ARRAY");
+   String id = getAttr("ID");
+
+   if (isobj || isarr) {
+      BicexBaseValue rslt = null;
+      String oref = getAttr("OREF");
+      if (oref != null && previous_values != null) {
+	 rslt = previous_values.get(oref);
+	 if (rslt != null) {
+	    known_values.put(id,rslt);
+	    skipElement();
+	    return rslt;
+	  }
+	 else
+	    BoardLog.logE("BICEX", "Missing OREF " + oref);
+       }
+      rslt = known_values.get(id);
+      if (rslt != null) {
+	 skipElement();
+	 return rslt;
+       }
+    }
+
+   boolean isnull = getBoolAttr("NULL");
+   if (lazy_values && (isobj || isarr) && !isnull) {
+      BicexBaseValue dv = decodeDeferredValue(name,isobj,id);
+      if (dv != null) return dv;
+    }
+
+   String type = getInternAttr("TYPE");
+   String fullname = getInternAttr("NAME");
+   boolean caninit = getBoolAttr("CANINIT");
+   boolean component = getBoolAttr("COMPONENT");
+   ++decoded_count;
+
+   if (!isnull && !isobj && !isarr) {
+      boolean chars = getBoolAttr("CHARS");
+      int len = getIntAttr("LENGTH");
+      String text = getElementText();
+      if (string_table != null && !chars) {
+	 BicexBaseValue cv = string_table.getConstant(type,fullname,name,caninit,component,text);
+	 if (cv != null) return cv;
+       }
+      BicexBaseValue bv = new BicexBaseValue(type,fullname,name,caninit,component);
+      bv.setupText(text,chars,len);
+      return bv;
+    }
+
+   BicexBaseValue bv = new BicexBaseValue(type,fullname,name,caninit,component);
+   if (isnull) {
+      bv.setupNull();
+      skipElement();
+    }
+   else if (isobj) {
+      bv.setupObject(id,known_values);
+      decodeObjectContents(bv);
+    }
+   else {
+      bv.setupArray(id,getIntAttr("SIZE"),known_values);
+      decodeArrayContents(bv);
+    }
+
+   return bv;
+}
+
+
+
+private void decodeObjectContents(BicexBaseValue bv) throws XMLStreamException
+{
+   while (nextChild(null)) {
+      if (isElement("FIELD")) {
+	 String nm = getAttr("NAME");
+	 if (string_table != null) nm = string_table.internField(nm);
+	 BicexValue cv = decodeRefValue();
+	 bv.addField(nm,cv);
+       }
+      else skipElement();
+    }
+}
+
+
+
+private void decodeArrayContents(BicexBaseValue bv) throws XMLStreamException
+{
+   BicexValue dflt = null;
+   while (nextChild(null)) {
+      if (!isElement("ELEMENT")) {
+	 skipElement();
+       }
+      else if (getBoolAttr("DEFAULT")) {
+	 while (nextChild(null)) {
+	    if (isElement("VALUE") && dflt == null) dflt = decodeBaseValue(null);
+	    else skipElement();
+	  }
+       }
+      else {
+	 int idx = getIntAttr("INDEX");
+	 BicexValue cv = decodeRefValue();
+	 bv.setElement(idx,cv);
+       }
+    }
+   bv.finishArray(dflt);
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Deferred value decoding 						*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Create an object or array value whose contents are left undecoded.
+ *	The contents are skipped, but any objects defined inside them are
+ *	registered (as deferred values themselves) so that references to
+ *	them by ID or OREF still resolve.  The values the contents refer to
+ *	are kept with the fragment rather than the whole result, so that a
+ *	value kept for later results does not keep this result alive.
+ *	Returns null if the position of the element in the text can not be
+ *	found.
+ **/
+
+private BicexBaseValue decodeDeferredValue(String name,boolean isobj,String id)
+	throws XMLStreamException
+{
+   if (tag_scanner == null) tag_scanner = new TagScanner(message_text);
+   int start = tag_scanner.findStartTagEnd(start_count);
+   if (start < 0) return null;
+
+   BicexBaseValue bv = new BicexBaseValue(getInternAttr("TYPE"),getInternAttr("NAME"),name,
+	 getBoolAttr("CANINIT"),getBoolAttr("COMPONENT"));
+   Map<String,BicexBaseValue> refs = new HashMap<>();
+   FragmentSource src = new FragmentSource(message_text,start,refs,string_table);
+   if (isobj) bv.setupDeferredObject(id,known_values,src);
+   else bv.setupDeferredArray(id,getIntAttr("SIZE"),known_values,src);
+   ++deferred_count;
+
+   Map<String,BicexBaseValue> outer = fragment_values;
+   fragment_values = refs;
+   try {
+      registerValues(null);
+    }
+   finally {
+      fragment_values = outer;
+    }
+
+   int end = tag_scanner.findEndTagStart(end_count);
+   if (end < start) {
+      BoardLog.logE("BICEX","Can't find end of deferred value " + id);
+      end = start;
+    }
+   src.setEnd(end);
+
+   return bv;
+}
+
+
+
+private void registerValues(String name) throws XMLStreamException
+{
+   while (nextChild(null)) {
+      if (isElement("VALUE")) {
+	 registerValue(name);
+       }
+      else {
+	 String nm = getInternAttr("NAME");
+	 if (nm == null) nm = getAttr("INDEX");
+	 registerValues(nm);
+       }
+    }
+}
+
+
+
+private void registerValue(String name) throws XMLStreamException
+{
+   boolean isobj = getBoolAttr("OBJECT");
+   boolean isarr = getBoolAttr("ARRAY");
+   String id = getAttr("ID");
+   if (!isobj && !isarr) {
+      skipElement();
+      return;
+    }
+
+   String oref = getAttr("OREF");
+   if (oref != null && previous_values != null) {
+      BicexBaseValue pv = previous_values.get(oref);
+      if (pv != null) {
+	 known_values.put(id,pv);
+	 noteReference(id,pv);
+	 skipElement();
+	 return;
+       }
+      else
+	 BoardLog.logE("BICEX", "Missing OREF " + oref);
+    }
+   if (id == null || getBoolAttr("NULL")) {
+      skipElement();
+      return;
+    }
+   BicexBaseValue kv = known_values.get(id);
+   if (kv != null) {
+      noteReference(id,kv);
+      skipElement();
+      return;
+    }
+
+   BicexBaseValue dv = decodeDeferredValue(name,isobj,id);
+   if (dv != null) noteReference(id,dv);
+   else registerValues(name);
+}
+
+
+
+private void noteReference(String id,BicexBaseValue bv)
+{
+   if (fragment_values != null) fragment_values.put(id,bv);
+}
+
+
+
+/**
+ *	Decode the contents of a deferred value from its text.	Objects
+ *	inside it were registered when it was deferred, so only its own
+ *	fields or elements are created.
+ **/
+
+private void decodeFragment(BicexBaseValue bv)
+{
+   try {
+      xml_reader = input_factory.createXMLStreamReader(new StringReader(message_text));
+      while (xml_reader.hasNext()) {
+	 if (nextEvent() == START_ELEMENT) break;
+       }
+      if (!xml_reader.isStartElement()) return;
+      if (bv.isArrayValue()) decodeArrayContents(bv);
+      else decodeObjectContents(bv);
+      xml_reader.close();
+    }
+   catch (XMLStreamException | RuntimeException e) {
+      BoardLog.logE("BICEX","Problem decoding deferred value",e);
+    }
+}
+
+
+
+private static class FragmentSource implements BicexValueSource {
+
+   private String source_text;
+   private int start_offset;
+   private int end_offset;
+   private boolean is_detached;
+   private Map<String,BicexBaseValue> fragment_values;
+   private BicexStringTable string_table;
+
+   FragmentSource(String text,int start,Map<String,BicexBaseValue> refs,BicexStringTable st) {
+      source_text = text;
+      start_offset = start;
+      end_offset = start;
+      is_detached = false;
+      fragment_values = refs;
+      string_table = st;
+    }
+
+   void setEnd(int end) 			{ end_offset = Math.max(end,start_offset); }
+
+   @Override public synchronized long getSize() { return 2L * (end_offset - start_offset); }
+
+   @Override public Map<String,BicexBaseValue> getReferences()	{ return fragment_values; }
+
+   @Override public synchronized boolean detach() {
+      if (is_detached) return false;
+      source_text = source_text.substring(start_offset,end_offset);
+      start_offset = 0;
+      end_offset = source_text.length();
+      is_detached = true;
+      return true;
+    }
+
+   private synchronized String getFragmentText() {
+      return source_text.substring(start_offset,end_offset);
+    }
+
+   @Override public void decodeValue(BicexBaseValue bv) {
+      String text = "<FRAGMENT>" + getFragmentText() + "</FRAGMENT>";
+      BicexResultDecoder dec = new BicexResultDecoder(text,new HashMap<>(fragment_values),
+	    string_table);
+      dec.decodeFragment(bv);
+    }
+
+   @Override public boolean sameSource(BicexValueSource src) {
+      if (!(src instanceof FragmentSource)) return false;
+      FragmentSource fs = (FragmentSource) src;
+      int len = end_offset - start_offset;
+      if (fs.end_offset - fs.start_offset != len) return false;
+      return source_text.regionMatches(start_offset,fs.source_text,fs.start_offset,len);
+    }
+
+}	// end of inner class FragmentSource
+
+
+
+/**
+ *	Finds the tags of the message text by counting them.  The character
+ *	offsets reported by the StAX reader can not be used since they are
+ *	wrong once the reader has refilled its buffer.	The n-th start and end
+ *	element events of the reader are the n-th start and end tags of the
+ *	text, where an empty element tag counts as both.  The text is scanned
+ *	once, in order, as the reader advances.
+ **/
+
+private static class TagScanner {
+
+   private String scan_text;
+   private int scan_offset;
+   private int start_tags;
+   private int end_tags;
+   private int start_tag_end;			// offset after last start tag
+   private int end_tag_start;			// offset of last end tag
+
+   TagScanner(String text) {
+      scan_text = text;
+      scan_offset = 0;
+      start_tags = 0;
+      end_tags = 0;
+      start_tag_end = -1;
+      end_tag_start = -1;
+    }
+
+   /**
+    *	Return the offset just after the n-th start tag, -1 if not found.
+    **/
+
+   int findStartTagEnd(int n) {
+      while (start_tags < n) {
+	 if (!nextTag()) return -1;
+       }
+      if (start_tags != n) return -1;
+      return start_tag_end;
+    }
+
+   /**
+    *	Return the offset of the n-th end tag (just after it for an empty
+    *	element tag), -1 if not found.
+    **/
+
+   int findEndTagStart(int n) {
+      while (end_tags < n) {
+	 if (!nextTag()) return -1;
+       }
+      if (end_tags != n) return -1;
+      return end_tag_start;
+    }
+
+   private boolean nextTag() {
+      for ( ; ; ) {
+	 int idx = scan_text.indexOf('<',scan_offset);
+	 if (idx < 0) {
+	    scan_offset = scan_text.length();
+	    return false;
+	  }
+	 if (scan_text.startsWith("<!--",idx)) {
+	    if (!skipPast("-->",idx+4)) return false;
+	  }
+	 else if (scan_text.startsWith("<![CDATA[",idx)) {
+	    if (!skipPast("]]>",idx+9)) return false;
+	  }
+	 else if (scan_text.startsWith("<?",idx)) {
+	    if (!skipPast("?>",idx+2)) return false;
+	  }
+	 else if (scan_text.startsWith("<!",idx)) {
+	    if (!skipPast(">",idx+2)) return false;
+	  }
+	 else if (scan_text.startsWith("</",idx)) {
+	    if (!skipPast(">",idx+2)) return false;
+	    end_tag_start = idx;
+	    ++end_tags;
+	    return true;
+	  }
+	 else {
+	    int end = findTagEnd(idx+1);
+	    if (end < 0) return false;
+	    scan_offset = end+1;
+	    start_tag_end = end+1;
+	    ++start_tags;
+	    if (scan_text.charAt(end-1) == '/') {
+	       end_tag_start = end+1;
+	       ++end_tags;
+	     }
+	    return true;
+	  }
+       }
+    }
+
+   private boolean skipPast(String s,int from) {
+      int idx = scan_text.indexOf(s,from);
+      if (idx < 0) {
+	 scan_offset = scan_text.length();
+	 return false;
+       }
+      scan_offset = idx + s.length();
+      return true;
+    }
+
+   private int findTagEnd(int from) {
+      char quote = 0;
+      for (int i = from; i < scan_text.length(); ++i) {
+	 char c = scan_text.charAt(i);
+	 if (quote != 0) {
+	    if (c == quote) quote = 0;
+	  }
+	 else if (c == '"' || c == '\'') quote = c;
+	 else if (c == '>') return i;
+       }
+      return -1;
+    }
+
+}	// end of inner class TagScanner
+
+
+
+/********************************************************************************/
+/*										*/
+/*	DOM fragments for the models that still work from elements		*/
+/*										*/
+/********************************************************************************/
+
+private Element buildElement() throws XMLStreamException
+{
+   Document doc = getFragmentDocument();
+   Element elt = doc.createElement(xml_reader.getLocalName());
+   for (int i = 0; i < xml_reader.getAttributeCount(); ++i) {
+      elt.setAttribute(xml_reader.getAttributeLocalName(i),xml_reader.getAttributeValue(i));
+    }
+
+   while (xml_reader.hasNext()) {
+      switch (nextEvent()) {
+	 case START_ELEMENT :
+	    elt.appendChild(buildElement());
+	    break;
+	 case END_ELEMENT :
+	    return elt;
+	 case CHARACTERS :
+	 case SPACE :
+	    elt.appendChild(doc.createTextNode(xml_reader.getText()));
+	    break;
+	 case CDATA :
+	    elt.appendChild(doc.createCDATASection(xml_reader.getText()));
+	    break;
+	 default :
+	    break;
+       }
+    }
+
+   return elt;
+}
+
+
+
+private Document getFragmentDocument()
+{
+   if (fragment_document == null) {
+      try {
+	 fragment_document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+       }
+      catch (ParserConfigurationException e) {
+	 throw new IllegalStateException("Can't create document for result fragments",e);
+       }
+    }
+
+   return fragment_document;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Stream helper methods							*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Advance the reader, counting the start and end elements so that the
+ *	corresponding tags can be found in the text.
+ **/
+
+private int nextEvent() throws XMLStreamException
+{
+   int evt = xml_reader.next();
+   if (evt == START_ELEMENT) ++start_count;
+   else if (evt == END_ELEMENT) ++end_count;
+   return evt;
+}
+
+
+/**
+ *	Advance to the next child element of the current element.  Returns
+ *	false when the end of the current element is reached.  Any direct
+ *	text is appended to the given buffer.  The caller must consume each
+ *	child element completely before asking for the next one.
+ **/
+
+private boolean nextChild(StringBuilder text) throws XMLStreamException
+{
+   while (xml_reader.hasNext()) {
+      switch (nextEvent()) {
+	 case START_ELEMENT :
+	    return true;
+	 case END_ELEMENT :
+	    return false;
+	 case CHARACTERS :
+	 case CDATA :
+	 case SPACE :
+	    if (text != null) {
+	       text.append(xml_reader.getTextCharacters(),xml_reader.getTextStart(),
+		     xml_reader.getTextLength());
+	     }
+	    break;
+	 default :
+	    break;
+       }
+    }
+
+   return false;
+}
+
+
+private void skipElement() throws XMLStreamException
+{
+   int depth = 1;
+   while (depth > 0 && xml_reader.hasNext()) {
+      switch (nextEvent()) {
+	 case START_ELEMENT :
+	    ++depth;
+	    break;
+	 case END_ELEMENT :
+	    --depth;
+	    break;
+	 default :
+	    break;
+       }
+    }
+}
+
+
+private String getElementText() throws XMLStreamException
+{
+   StringBuilder buf = new StringBuilder();
+   while (nextChild(buf)) skipElement();
+   if (buf.length() == 0) return null;
+   return buf.toString();
+}
+
+
+private boolean isElement(String nm)
+{
+   return nm.equals(xml_reader.getLocalName());
+}
+
+
+private String getAttr(String nm)
+{
+   return xml_reader.getAttributeValue(null,nm);
+}
+
+
+/**
+ *	Get an attribute that repeats across the trace (names, types, methods,
+ *	files) as a shared string.  The table lasts for the session, so values
+ *	that are mostly distinct, such as array indices, should not use this.
+ **/
+
+private String getInternAttr(String nm)
+{
+   String v = xml_reader.getAttributeValue(null,nm);
+   if (string_table != null) v = string_table.intern(v);
+   return v;
+}
+
+
+private boolean getBoolAttr(String nm)
+{
+   String v = getAttr(nm);
+   if (v == null || v.length() == 0) return false;
+   switch (v.charAt(0)) {
+      case 't' :
+      case 'T' :
+      case 'y' :
+      case 'Y' :
+      case '1' :
+	 return true;
+      default :
+	 return false;
+    }
+}
+
+
+private int getIntAttr(String nm)
+{
+   String v = getAttr(nm);
+   if (v == null) return -1;
+   try {
+      return Integer.parseInt(v);
+    }
+   catch (NumberFormatException e) { }
+   return -1;
+}
+
+
+private long getLongAttr(String nm)
+{
+   String v = getAttr(nm);
+   if (v == null) return -1;
+   try {
+      return Long.parseLong(v);
+    }
+   catch (NumberFormatException e) { }
+   return -1;
+}
+
+
+private <T extends Enum<T>> T getEnumAttr(String nm,T dflt)
+{
+   String v = getAttr(nm);
+   if (v == null) return dflt;
+   try {
+      return Enum.valueOf(dflt.getDeclaringClass(),v);
+    }
+   catch (IllegalArgumentException e) { }
+   return dflt;
+}
+
+
+
+}	// end of class BicexResultDecoder
+
+
+
+
+/* end of BicexResultDecoder.java */
@@ -40,6 +40,8 @@ import java.awt.Stroke;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 class BicexStackViewPanel extends BicexPanel implements BicexConstants
 {
@@ -56,6 +58,7 @@ private boolean 	grow_down;
 
 
 private static final int   LAYER_HEIGHT = 16;
+private static final int   MIN_TEXT_WIDTH = 12;
 
 
 
@@ -92,6 +95,7 @@ BicexStackViewPanel(BicexEvaluationViewer ev)
 
 @Override void update()
 {
+   stack_panel.invalidateImage();
    stack_panel.repaint();
 }
 
@@ -165,67 +169,133 @@ private BicexEvaluationContext getContextForPosition(Point pt)
 /*										*/
 /********************************************************************************/
 
+/**
+ *	The contexts are drawn once into an image that is kept until the
+ *	evaluation or the panel size changes; a time change only redraws the
+ *	outline of the current context.  Contexts narrower than a pixel are
+ *	merged into a single column per pixel and level, and their inner
+ *	contexts are not drawn.
+ **/
+
 private class StackPanel extends JPanel {
 
    private transient BicexEvaluationContext time_context;
    private transient Stroke highlight_stroke;
+   private transient BufferedImage stack_image;
+   private transient BicexEvaluationContext image_context;
+   private transient int [] level_columns;
 
    private static final long serialVersionUID = 1;
 
    StackPanel() {
       time_context = null;
       highlight_stroke = new BasicStroke(2);
+      stack_image = null;
+      image_context = null;
+      level_columns = null;
       setToolTipText("Stack Panel");
       addMouseListener(new ClickHandler());
     }
 
+   void invalidateImage() {
+      stack_image = null;
+    }
+
    @Override public void paintComponent(Graphics g) {
       Graphics2D g2 = (Graphics2D) g;
 
-      g2.setColor(BoardColors.getColor("Bicex.StackViewBackground"));
-      g2.fillRect(0,0,getWidth(),getHeight());
+      BicexEvaluationContext base = getRootContext();
+      int wd = getWidth();
+      int ht = getHeight();
+      if (base == null || wd <= 0 || ht <= 0) {
+	 g2.setColor(BoardColors.getColor("Bicex.StackViewBackground"));
+	 g2.fillRect(0,0,wd,ht);
+	 return;
+       }
+
+      if (stack_image == null || image_context != base ||
+	    stack_image.getWidth() != wd || stack_image.getHeight() != ht) {
+	 stack_image = new BufferedImage(wd,ht,BufferedImage.TYPE_INT_ARGB);
+	 image_context = base;
+	 Graphics2D ig = stack_image.createGraphics();
+	 try {
+	    ig.setColor(BoardColors.getColor("Bicex.StackViewBackground"));
+	    ig.fillRect(0,0,wd,ht);
+	    level_columns = new int[ht/LAYER_HEIGHT + 1];
+	    Arrays.fill(level_columns,-1);
+	    paintContext(ig,base,base.getStartTime(),base.getEndTime(),0);
+	  }
+	 finally {
+	    ig.dispose();
+	    level_columns = null;
+	  }
+       }
+      g2.drawImage(stack_image,0,0,null);
 
       time_context = getContextForTime();
-      BicexEvaluationContext base = getRootContext();
-      if (base == null) return;
-      long t0 = base.getStartTime();
-      long t1 = base.getEndTime();
-      paintContext(g2,base,t0,t1,0);
+      paintHighlight(g2,base,time_context);
     }
 
    private void paintContext(Graphics2D g,BicexEvaluationContext ctx,long t0,long t1,int lvl) {
-      Color c = getColorForMethod(ctx.getMethod());
-      String txt = ctx.getShortName();
       double wd = getWidth();
       double x0 = getXPosition(ctx.getStartTime(),t0,t1)*wd;
       double x1 = getXPosition(ctx.getEndTime(),t0,t1)*wd;
-      double y0 = lvl * LAYER_HEIGHT;
-      double y1 = y0 + LAYER_HEIGHT;
-      if (!grow_down) {
-	 double yx = getHeight() -y1;
-	 y1 = getHeight() - y0;
-	 y0 = yx;
+      double y0 = getYPosition(lvl);
+
+      Color c = getColorForMethod(ctx.getMethod());
+      if (x1 - x0 < 1) {
+	 int col = (int) x0;
+	 if (level_columns[lvl] >= col) return;
+	 level_columns[lvl] = col;
+	 g.setColor(c);
+	 g.fillRect(col,(int) y0,1,LAYER_HEIGHT);
+	 return;
        }
+      level_columns[lvl] = (int) Math.ceil(x1) - 1;
+
       Rectangle2D r2 = new Rectangle2D.Double(x0,y0,x1-x0,LAYER_HEIGHT);
       g.setColor(c);
       g.fill(r2);
-      if (ctx == time_context) {
-	 g.setColor(BoardColors.getColor("Bicex.StackViewOutline"));
-	 g.setStroke(highlight_stroke);
-	 g.draw(r2);
-       }
 
-      Color c1 = BoardColors.getTextColor(c);
-      g.setColor(c1);
-      SwingText.drawText(txt,g,r2);
+      if (x1 - x0 >= MIN_TEXT_WIDTH) {
+	 Color c1 = BoardColors.getTextColor(c);
+	 g.setColor(c1);
+	 SwingText.drawText(ctx.getShortName(),g,r2);
+       }
 
-      if (ctx.getInnerContexts() != null) {
+      if (ctx.getInnerContexts() != null && lvl+1 < level_columns.length) {
 	 for (BicexEvaluationContext sctx : ctx.getInnerContexts()) {
 	    paintContext(g,sctx,t0,t1,lvl+1);
 	  }
        }
     }
 
+   private void paintHighlight(Graphics2D g,BicexEvaluationContext base,BicexEvaluationContext ctx) {
+      if (ctx == null) return;
+
+      int lvl = 0;
+      for (BicexEvaluationContext p = ctx; p != base; p = p.getParent()) {
+	 if (p == null) return;
+	 ++lvl;
+       }
+
+      double wd = getWidth();
+      long t0 = base.getStartTime();
+      long t1 = base.getEndTime();
+      double x0 = getXPosition(ctx.getStartTime(),t0,t1)*wd;
+      double x1 = getXPosition(ctx.getEndTime(),t0,t1)*wd;
+      Rectangle2D r2 = new Rectangle2D.Double(x0,getYPosition(lvl),Math.max(x1-x0,1),LAYER_HEIGHT);
+      g.setColor(BoardColors.getColor("Bicex.StackViewOutline"));
+      g.setStroke(highlight_stroke);
+      g.draw(r2);
+    }
+
+   private double getYPosition(int lvl) {
+      double y0 = lvl * LAYER_HEIGHT;
+      if (!grow_down) y0 = getHeight() - y0 - LAYER_HEIGHT;
+      return y0;
+    }
+
    private double getXPosition(double t,double t0,double t1) {
       return (t-t0)/(t1-t0);
     }
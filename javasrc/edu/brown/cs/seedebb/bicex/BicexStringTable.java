@@ -0,0 +1,200 @@
+/********************************************************************************/
+/*										*/
+/*		BicexStringTable.java						*/
+/*										*/
+/*	Per-session table of shared strings and constant values 		*/
+/*										*/
+/********************************************************************************/
+/*	Copyright 2011 Brown University -- Steven P. Reiss		      */
+/*********************************************************************************
+ *  Copyright 2011, Brown University, Providence, RI.				 *
+ *										 *
+ *			  All Rights Reserved					 *
+ *										 *
+ * This program and the accompanying materials are made available under the	 *
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, *
+ * and is available at								 *
+ *	http://www.eclipse.org/legal/epl-v10.html				 *
+ *										 *
+ ********************************************************************************/
+
+/* SVN: $Id$ */
+
+
+
+package edu.brown.cs.seedebb.bicex;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+
+/**
+ *	Table used by the result decoder so that the type names, variable and
+ *	field names, methods and files that repeat throughout a trace share a
+ *	single string, and so that primitive values with the same type, name
+ *	and text share a single (immutable) value.
+ **/
+
+class BicexStringTable implements BicexConstants
+{
+
+
+/********************************************************************************/
+/*										*/
+/*	Private Storage 							*/
+/*										*/
+/********************************************************************************/
+
+private Map<String,String>	string_map;
+private Map<String,String>	field_map;
+private Map<ConstantKey,BicexBaseValue> constant_map;
+private int			constant_hits;
+
+private static final Set<String> PRIMITIVE_TYPES = Set.of("int","long","short","byte",
+      "char","boolean","float","double");
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Constructors								*/
+/*										*/
+/********************************************************************************/
+
+BicexStringTable()
+{
+   string_map = new HashMap<>();
+   field_map = new HashMap<>();
+   constant_map = new HashMap<>();
+   constant_hits = 0;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	String access								*/
+/*										*/
+/********************************************************************************/
+
+synchronized String intern(String s)
+{
+   if (s == null) return null;
+
+   String rslt = string_map.putIfAbsent(s,s);
+   if (rslt == null) rslt = s;
+
+   return rslt;
+}
+
+
+/**
+ *	Return the shared unqualified form of a field name.
+ **/
+
+synchronized String internField(String nm)
+{
+   if (nm == null) return null;
+
+   String rslt = field_map.get(nm);
+   if (rslt == null) {
+      int idx = nm.lastIndexOf(".");
+      rslt = intern(idx > 0 ? nm.substring(idx+1) : nm);
+      field_map.put(nm,rslt);
+    }
+
+   return rslt;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Constant access 							*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Return the shared value for a primitive constant, null if the value
+ *	should not be shared.  Strings passed in should already be interned.
+ **/
+
+synchronized BicexBaseValue getConstant(String type,String fullname,String name,
+      boolean caninit,boolean component,String text)
+{
+   if (type == null || text == null || !PRIMITIVE_TYPES.contains(type)) return null;
+   if (text.length() > BICEX_CONSTANT_LENGTH) return null;
+
+   if (fullname == null) fullname = name;
+   ConstantKey key = new ConstantKey(type,fullname,text,caninit,component);
+   BicexBaseValue bv = constant_map.get(key);
+   if (bv != null) {
+      ++constant_hits;
+      return bv;
+    }
+   if (constant_map.size() >= BICEX_CONSTANT_CACHE_SIZE) return null;
+
+   bv = new BicexBaseValue(type,fullname,name,caninit,component);
+   bv.setupText(text,false,-1);
+   constant_map.put(key,bv);
+
+   return bv;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Statistics								*/
+/*										*/
+/********************************************************************************/
+
+synchronized int getStringCount()		{ return string_map.size(); }
+synchronized int getConstantCount()		{ return constant_map.size(); }
+synchronized int getConstantHits()		{ return constant_hits; }
+
+
+
+/********************************************************************************/
+/*										*/
+/*	ConstantKey -- key for shared primitive values				*/
+/*										*/
+/********************************************************************************/
+
+private static class ConstantKey {
+
+   private String value_type;
+   private String full_name;
+   private String value_text;
+   private int value_flags;
+
+   ConstantKey(String type,String fullname,String text,boolean caninit,boolean component) {
+      value_type = type;
+      full_name = fullname;
+      value_text = text;
+      value_flags = (caninit ? 1 : 0) | (component ? 2 : 0);
+    }
+
+   @Override public boolean equals(Object o) {
+      if (!(o instanceof ConstantKey)) return false;
+      ConstantKey k = (ConstantKey) o;
+      return value_flags == k.value_flags && value_type.equals(k.value_type) &&
+	 value_text.equals(k.value_text) && Objects.equals(full_name,k.full_name);
+    }
+
+   @Override public int hashCode() {
+      return Objects.hash(value_type,full_name,value_text) + value_flags;
+    }
+
+}	// end of inner class ConstantKey
+
+
+
+}	// end of class BicexStringTable
+
+
+
+
+/* end of BicexStringTable.java */
@@ -39,7 +39,6 @@ import java.awt.event.AdjustmentListener;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Rectangle2D;
 import java.util.Collection;
-import java.util.List;
 
 
 class BicexTimeScroller extends JScrollBar implements BicexConstants, AdjustmentListener
@@ -175,21 +174,10 @@ void update()
    BicexEvaluationContext ctx = for_bubble.getExecution().getCurrentContext();
    if (ctx != null) {
       BicexValue bv = ctx.getValues().get("*LINE*");
-      List<Integer> times = bv.getTimeChanges();
       long now = for_bubble.getExecution().getCurrentTime();
-      long prev = -1;
-      long next = -1;
-      long cur = -1;
-      for (Integer t : times) {
-	 if (t <= now) {
-	    prev = cur;
-	    cur = t;
-	  }
-	 else if (next < 0) {
-	    next = t;
-	    break;
-	  }
-       }
+      long cur = bv.getFloorTimeChange(now);
+      long prev = (cur < 0 ? -1 : bv.getPriorTimeChange(cur));
+      long next = bv.getNextTimeChange(now);
 
       if (dir < 0 && prev > 0) {
 	 return (int) (now-prev);
@@ -253,31 +241,16 @@ void handlePopupMenu(JPopupMenu menu,MouseEvent evt)
    BicexEvaluationContext ctx = for_bubble.getExecution().getCurrentContext();
    if (ctx == null) return;
 
-   if (ctx.getInnerContexts() != null) {
-      for (BicexEvaluationContext sctx : ctx.getInnerContexts()) {
-	 if (sctx.getStartTime() <= time && sctx.getEndTime() >= time) {
-	    menu.add(for_bubble.getContextAction("Go to " + sctx.getShortName(),sctx));
-	    break;
-	 }
-      }
+   BicexEvaluationContext sctx = ctx.getInnerContextAt(time);
+   if (sctx != null) {
+      menu.add(for_bubble.getContextAction("Go to " + sctx.getShortName(),sctx));
     }
 
    BicexValue bv = for_bubble.getExecution().getCurrentContext().getValues().get("*LINE*");
-   List<Integer> times = bv.getTimeChanges();
    long now = for_bubble.getExecution().getCurrentTime();
-   long prev = -1;
-   long next = -1;
-   long cur = -1;
-   for (Integer t : times) {
-      if (t <= now) {
-	 prev = cur;
-	 cur = t;
-       }
-      else if (next < 0) {
-	 next = t;
-	 break;
-       }
-    }
+   long cur = bv.getFloorTimeChange(now);
+   long prev = (cur < 0 ? -1 : bv.getPriorTimeChange(cur));
+   long next = bv.getNextTimeChange(now);
 
    if (prev > 0) menu.add(for_bubble.getTimeAction("Go To Previous Line",prev+1));
    if (next > 0) menu.add(for_bubble.getTimeAction("Go To Next Line",next+1));
@@ -308,27 +281,18 @@ void handlePopupMenu(JPopupMenu menu,MouseEvent evt)
    BicexEvaluationContext ctx = for_bubble.getExecution().getCurrentContext();
    if (ctx == null) return null;
 
-   BicexValue bv = ctx.getValues().get("*LINE*");
-   List<Integer> times = bv.getTimeChanges();
-   String line = null;
-   for (Integer t : times) {
-      if (t <= time) {
-	 line = bv.getStringValue(t+1);
-	}
-      else break;
-     }
-   if (line != null) rslt = "Line " + line;
+   BicexLineIndex li = ctx.getLineIndex();
+   if (li != null) {
+      int line = li.getLineAtTime(time);
+      if (line >= 0) rslt = "Line " + line;
+    }
 
    if (ctx != null) {
       String what = "In";
-      if (ctx.getInnerContexts() != null) {
-	 for (BicexEvaluationContext sctx : ctx.getInnerContexts()) {
-	    if (sctx.getStartTime() <= time && sctx.getEndTime() >= time) {
-	       ctx = sctx;
-	       what = "Calling";
-	       break;
-	     }
-	  }
+      BicexEvaluationContext sctx = ctx.getInnerContextAt(time);
+      if (sctx != null) {
+	 ctx = sctx;
+	 what = "Calling";
        }
       if (rslt == null) rslt = what + " " + ctx.getMethod();
       else rslt += " " + what + " " + ctx.getShortName();
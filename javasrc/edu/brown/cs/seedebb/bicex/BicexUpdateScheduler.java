@@ -0,0 +1,258 @@
+/********************************************************************************/
+/*										*/
+/*		BicexUpdateScheduler.java					*/
+/*										*/
+/*	Merge execution updates and deliver them on the EDT at a capped rate	*/
+/*										*/
+/********************************************************************************/
+/*	Copyright 2011 Brown University -- Steven P. Reiss		      */
+/*********************************************************************************
+ *  Copyright 2011, Brown University, Providence, RI.				 *
+ *										 *
+ *			  All Rights Reserved					 *
+ *										 *
+ * This program and the accompanying materials are made available under the	 *
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, *
+ * and is available at								 *
+ *	http://www.eclipse.org/legal/epl-v10.html				 *
+ *										 *
+ ********************************************************************************/
+
+/* SVN: $Id$ */
+
+
+
+package edu.brown.cs.seedebb.bicex;
+
+import edu.brown.cs.bubbles.board.BoardLog;
+import edu.brown.cs.bubbles.board.BoardProperties;
+import edu.brown.cs.bubbles.buda.BudaBubble;
+
+import javax.swing.Timer;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+
+/**
+ *	Listener that sits between an execution and a viewer.  Evaluation,
+ *	context and time changes are only recorded when they arrive; they are
+ *	delivered together on the EDT, at most once per update delay.  Each is
+ *	recorded with its arrival sequence so that updates are delivered on
+ *	the correct side of a reset.  Requests that need an answer are passed
+ *	through directly.
+ **/
+
+class BicexUpdateScheduler implements BicexConstants, BicexConstants.BicexEvaluationUpdated,
+	ActionListener
+{
+
+
+/********************************************************************************/
+/*										*/
+/*	Private Storage 							*/
+/*										*/
+/********************************************************************************/
+
+private BicexEvaluationUpdated	for_listener;
+private Timer			update_timer;
+private int			update_delay;
+private BicexRunner		last_runner;
+private long			event_counter;
+private long			reset_pending;		// arrival sequence, 0 if none
+private long			evaluation_pending;
+private long			context_pending;
+private long			time_pending;
+private boolean 		update_scheduled;
+private long			last_update;
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Constructors								*/
+/*										*/
+/********************************************************************************/
+
+BicexUpdateScheduler(BicexEvaluationUpdated upd)
+{
+   for_listener = upd;
+
+   BoardProperties bp = BoardProperties.getProperties("Bicex");
+   update_delay = bp.getInt("Bicex.update.delay",BICEX_UPDATE_DELAY);
+   if (update_delay < 0) update_delay = 0;
+
+   update_timer = new Timer(update_delay,this);
+   update_timer.setRepeats(false);
+
+   last_runner = null;
+   event_counter = 0;
+   reset_pending = 0;
+   evaluation_pending = 0;
+   context_pending = 0;
+   time_pending = 0;
+   update_scheduled = false;
+   last_update = 0;
+}
+
+
+
+void dispose()
+{
+   synchronized (this) {
+      reset_pending = 0;
+      evaluation_pending = 0;
+      context_pending = 0;
+      time_pending = 0;
+      update_scheduled = false;
+    }
+   update_timer.stop();
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Recording methods							*/
+/*										*/
+/********************************************************************************/
+
+@Override public void evaluationUpdated(BicexRunner bex)
+{
+   synchronized (this) {
+      last_runner = bex;
+      evaluation_pending = ++event_counter;
+      schedule();
+    }
+}
+
+
+@Override public void contextUpdated(BicexRunner bex)
+{
+   synchronized (this) {
+      last_runner = bex;
+      context_pending = ++event_counter;
+      schedule();
+    }
+}
+
+
+@Override public void timeUpdated(BicexRunner bex)
+{
+   synchronized (this) {
+      last_runner = bex;
+      time_pending = ++event_counter;
+      schedule();
+    }
+}
+
+
+@Override public void evaluationReset(BicexRunner bex)
+{
+   synchronized (this) {
+      last_runner = bex;
+      reset_pending = ++event_counter;
+      schedule();
+    }
+}
+
+
+
+private void schedule()
+{
+   if (update_scheduled) return;
+   update_scheduled = true;
+
+   long delay = update_delay - (System.currentTimeMillis() - last_update);
+   if (delay < 0) delay = 0;
+   update_timer.setInitialDelay((int) delay);
+   update_timer.restart();
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Pass-through methods							*/
+/*										*/
+/********************************************************************************/
+
+@Override public String inputRequest(BicexRunner bex,String file)
+{
+   return for_listener.inputRequest(bex,file);
+}
+
+
+@Override public String valueRequest(BicexRunner bex,String var)
+{
+   return for_listener.valueRequest(bex,var);
+}
+
+
+@Override public void editorAdded(BudaBubble bw)
+{
+   for_listener.editorAdded(bw);
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Delivery methods							*/
+/*										*/
+/********************************************************************************/
+
+@Override public void actionPerformed(ActionEvent evt)
+{
+   BicexRunner bex;
+   long reset;
+   long eval;
+   long ctx;
+   long time;
+
+   synchronized (this) {
+      if (!update_scheduled) return;
+      bex = last_runner;
+      reset = reset_pending;
+      eval = evaluation_pending;
+      ctx = context_pending;
+      time = time_pending;
+      reset_pending = 0;
+      evaluation_pending = 0;
+      context_pending = 0;
+      time_pending = 0;
+      update_scheduled = false;
+      last_update = System.currentTimeMillis();
+    }
+
+   try {
+      if (reset > 0) {
+	 // updates that arrived before the reset are delivered before it
+	 deliverUpdates(bex,eval > 0 && eval < reset,ctx > 0 && ctx < reset,
+	       time > 0 && time < reset);
+	 for_listener.evaluationReset(bex);
+       }
+      deliverUpdates(bex,eval > reset,ctx > reset,time > reset);
+    }
+   catch (Throwable t) {
+      BoardLog.logE("BICEX","Problem updating evaluation display",t);
+    }
+}
+
+
+
+private void deliverUpdates(BicexRunner bex,boolean eval,boolean ctx,boolean time)
+{
+   if (eval) for_listener.evaluationUpdated(bex);
+   else if (ctx) for_listener.contextUpdated(bex);
+   if (time) for_listener.timeUpdated(bex);
+}
+
+
+
+}	// end of class BicexUpdateScheduler
+
+
+
+
+/* end of BicexUpdateScheduler.java */
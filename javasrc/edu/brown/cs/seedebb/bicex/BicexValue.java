@@ -30,7 +30,8 @@ import edu.brown.cs.ivy.xml.IvyXml;
 
 import org.w3c.dom.Element;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -63,7 +64,7 @@ static BicexValue createRefValue(Element xml,Map<String,BicexBaseValue> knownval
 	    bv = BicexBaseValue.createBaseValue(tsv);
 	  }
        }
-      long tv = IvyXml.getAttrInt(velt,"TIME");
+      long tv = IvyXml.getAttrLong(velt,"TIME");
       if (rslt == null) {
 	 rslt = bv;
 	 time0 = tv;
@@ -87,6 +88,8 @@ static BicexValue createRefValue(Element xml,Map<String,BicexBaseValue> knownval
        }
     }
 
+   if (ref != null) ref.compact();
+
    return rslt;
 }
 
@@ -141,13 +144,21 @@ static BicexBaseValue createBaseValue(String s)
 
 boolean hasChildren(long when)			{ return false; }
 Map<String,BicexValue> getChildren(long when)	{ return null; }
+
+/**
+ *	Indexed access to the elements of an array value.  The size is -1 if
+ *	the value is not an array; missing elements are null.
+ **/
+
+int getArraySize(long when)			{ return -1; }
+BicexValue getArrayElement(long when,int idx)	{ return null; }
+
 String getStringValue(long when)		{ return null; }
 String getDataType(long when)			{ return null; }
 String getFullName()				{ return null; }
 
 String getTooltipValue(long when)		{ return null; }
 
-List<Integer> getTimeChanges()			{ return Collections.singletonList(0); }
 long getUpdateTime(long t)			{ return -1; }
 
 boolean isInitializable()			{ return false; }
@@ -157,6 +168,128 @@ boolean isComponent(long when)			{ return false; }
 void reset()                                    { }
 
 
+/**
+ *	Stop this value from sharing the text of the message it came from and
+ *	add the values it refers to to work.  Use BicexBaseValue.detachSources.
+ **/
+
+void detachValue(Collection<BicexValue> work)	{ }
+
+
+/**
+ *	Check if this value is the same as one from a previous result.  The
+ *	done map holds pairs already assumed equal so cyclic structures
+ *	terminate.
+ **/
+
+boolean sameValue(BicexValue v,Map<BicexValue,BicexValue> done)
+{
+   return v == this;
+}
+
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Time change methods							*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	The times at which the value changes are available by index in
+ *	increasing order.  A simple value changes only once, at time 0.
+ **/
+
+int getTimeChangeCount()			{ return 1; }
+long getTimeChange(int idx)			{ return 0; }
+
+
+/**
+ *	Return the index of the last change at or before t, -1 if none.
+ **/
+
+int findTimeChange(long t)
+{
+   int lo = 0;
+   int hi = getTimeChangeCount()-1;
+   while (lo <= hi) {
+      int mid = (lo+hi) >>> 1;
+      long mt = getTimeChange(mid);
+      if (mt < t) lo = mid+1;
+      else if (mt > t) hi = mid-1;
+      else return mid;
+    }
+   return hi;
+}
+
+
+/**
+ *	Return the time of the last change at or before t, -1 if none.
+ **/
+
+long getFloorTimeChange(long t)
+{
+   int idx = findTimeChange(t);
+   if (idx < 0) return -1;
+   return getTimeChange(idx);
+}
+
+
+/**
+ *	Return the time of the first change at or after t, -1 if none.
+ **/
+
+long getCeilingTimeChange(long t)
+{
+   int idx = findTimeChange(t);
+   if (idx >= 0 && getTimeChange(idx) == t) return t;
+   if (idx+1 >= getTimeChangeCount()) return -1;
+   return getTimeChange(idx+1);
+}
+
+
+/**
+ *	Return the time of the first change strictly after t, -1 if none.
+ **/
+
+long getNextTimeChange(long t)
+{
+   int idx = findTimeChange(t);
+   if (idx+1 >= getTimeChangeCount()) return -1;
+   return getTimeChange(idx+1);
+}
+
+
+/**
+ *	Return the time of the last change strictly before t, -1 if none.
+ **/
+
+long getPriorTimeChange(long t)
+{
+   int idx = findTimeChange(t);
+   if (idx >= 0 && getTimeChange(idx) == t) --idx;
+   if (idx < 0) return -1;
+   return getTimeChange(idx);
+}
+
+
+/**
+ *	Compatibility method: returns the change times as a new list.  The
+ *	indexed methods above avoid the allocation and the int truncation.
+ **/
+
+List<Integer> getTimeChanges()
+{
+   int ct = getTimeChangeCount();
+   List<Integer> rslt = new ArrayList<>(ct);
+   for (int i = 0; i < ct; ++i) {
+      rslt.add((int) getTimeChange(i));
+    }
+   return rslt;
+}
+
+
 
 }	// end of interface BicexValue
 
@@ -0,0 +1,237 @@
+/********************************************************************************/
+/*										*/
+/*		BicexValueStore.java						*/
+/*										*/
+/*	Bounded store of values from previous results for OREF lookup		*/
+/*										*/
+/********************************************************************************/
+/*	Copyright 2011 Brown University -- Steven P. Reiss		      */
+/*********************************************************************************
+ *  Copyright 2011, Brown University, Providence, RI.				 *
+ *										 *
+ *			  All Rights Reserved					 *
+ *										 *
+ * This program and the accompanying materials are made available under the	 *
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution, *
+ * and is available at								 *
+ *	http://www.eclipse.org/legal/epl-v10.html				 *
+ *										 *
+ ********************************************************************************/
+
+/* SVN: $Id$ */
+
+
+
+package edu.brown.cs.seedebb.bicex;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ *	Values known from previous results, indexed by ID, used to resolve
+ *	OREF references in later results.  Each result is a generation.  A
+ *	lookup marks the value as used by the result being decoded; values
+ *	neither defined nor used by the latest result are dropped (or, when
+ *	results are merged, evicted least recently used first once the
+ *	estimated size exceeds the memory budget).
+ **/
+
+class BicexValueStore extends AbstractMap<String,BicexBaseValue> implements BicexConstants
+{
+
+
+/********************************************************************************/
+/*										*/
+/*	Private Storage 							*/
+/*										*/
+/********************************************************************************/
+
+private Map<String,StoreEntry> value_map;
+private List<StoreEntry> used_entries;
+private int		current_generation;
+private long		memory_budget;
+private long		estimated_size;
+private int		evicted_count;
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Constructors								*/
+/*										*/
+/********************************************************************************/
+
+BicexValueStore(long budget)
+{
+   value_map = new HashMap<>();
+   used_entries = new ArrayList<>();
+   current_generation = 0;
+   memory_budget = budget;
+   estimated_size = 0;
+   evicted_count = 0;
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Access methods								*/
+/*										*/
+/********************************************************************************/
+
+@Override public synchronized BicexBaseValue get(Object key)
+{
+   StoreEntry ent = value_map.get(key);
+   if (ent == null) return null;
+
+   if (ent.use_generation <= current_generation) {
+      ent.use_generation = current_generation+1;
+      used_entries.add(ent);
+    }
+
+   return ent.store_value;
+}
+
+
+@Override public synchronized boolean containsKey(Object key)
+{
+   return value_map.containsKey(key);
+}
+
+
+@Override public synchronized int size()		{ return value_map.size(); }
+
+
+@Override public synchronized Set<Map.Entry<String,BicexBaseValue>> entrySet()
+{
+   Map<String,BicexBaseValue> rslt = new LinkedHashMap<>();
+   for (Map.Entry<String,StoreEntry> ent : value_map.entrySet()) {
+      rslt.put(ent.getKey(),ent.getValue().store_value);
+    }
+   return rslt.entrySet();
+}
+
+
+/**
+ *	Return the estimated size in bytes of the retained values.
+ **/
+
+synchronized long getEstimatedSize()			{ return estimated_size; }
+
+synchronized int getEvictedCount()			{ return evicted_count; }
+
+
+
+/********************************************************************************/
+/*										*/
+/*	Update methods								*/
+/*										*/
+/********************************************************************************/
+
+/**
+ *	Add the values of a new result as the next generation.	If merge is
+ *	false, older values that the result did not reference are dropped.
+ **/
+
+synchronized void update(Map<String,BicexBaseValue> known,boolean merge)
+{
+   ++current_generation;
+   evicted_count = 0;
+
+   // values carried over from earlier results should not pin old messages
+   Map<BicexBaseValue,StoreEntry> carried = new IdentityHashMap<>();
+   for (StoreEntry ent : used_entries) carried.put(ent.store_value,ent);
+   BicexBaseValue.detachSources(carried.keySet());
+   for (StoreEntry ent : used_entries) ent.setSize();
+   used_entries.clear();
+
+   if (!merge) {
+      for (Iterator<StoreEntry> it = value_map.values().iterator(); it.hasNext(); ) {
+	 StoreEntry ent = it.next();
+	 if (ent.use_generation < current_generation) {
+	    it.remove();
+	    ++evicted_count;
+	  }
+       }
+    }
+
+   for (Map.Entry<String,BicexBaseValue> ent : known.entrySet()) {
+      // a carried over value is now known by its new ID only
+      StoreEntry old = carried.get(ent.getValue());
+      if (old != null && !old.entry_key.equals(ent.getKey()) &&
+	    value_map.get(old.entry_key) == old) {
+	 value_map.remove(old.entry_key);
+       }
+      value_map.put(ent.getKey(),new StoreEntry(ent.getKey(),ent.getValue(),current_generation));
+    }
+
+   estimated_size = 0;
+   for (StoreEntry ent : value_map.values()) {
+      estimated_size += ent.entry_size;
+    }
+
+   if (estimated_size > memory_budget) evict();
+}
+
+
+
+private void evict()
+{
+   List<Map.Entry<String,StoreEntry>> ents = new ArrayList<>();
+   for (Map.Entry<String,StoreEntry> ent : value_map.entrySet()) {
+      if (ent.getValue().use_generation < current_generation) ents.add(ent);
+    }
+   ents.sort((e1,e2) -> Integer.compare(e1.getValue().use_generation,e2.getValue().use_generation));
+
+   for (Map.Entry<String,StoreEntry> ent : ents) {
+      if (estimated_size <= memory_budget) break;
+      value_map.remove(ent.getKey());
+      estimated_size -= ent.getValue().entry_size;
+      ++evicted_count;
+    }
+}
+
+
+
+/********************************************************************************/
+/*										*/
+/*	StoreEntry -- value with its generation 				*/
+/*										*/
+/********************************************************************************/
+
+private static class StoreEntry {
+
+   private String entry_key;
+   private BicexBaseValue store_value;
+   private int use_generation;
+   private long entry_size;
+
+   StoreEntry(String key,BicexBaseValue bv,int gen) {
+      entry_key = key;
+      store_value = bv;
+      use_generation = gen;
+      setSize();
+    }
+
+   void setSize() {
+      entry_size = store_value.getEstimatedSize();
+    }
+
+}	// end of inner class StoreEntry
+
+
+
+}	// end of class BicexValueStore
+
+
+
+
+/* end of BicexValueStore.java */
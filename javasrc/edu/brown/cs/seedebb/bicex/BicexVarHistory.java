@@ -56,11 +56,15 @@ import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 class BicexVarHistory implements BicexConstants, MintConstants
 {
@@ -115,7 +119,21 @@ BicexVarHistory(BicexEvaluationViewer ev,BicexValue bv,String name,boolean bbl)
 
 void process()
 {
-   addDependentNodes(start_node);
+   // requests for all nodes at the same depth are sent together
+   List<VarNode> work = new ArrayList<>();
+   work.add(start_node);
+   while (!work.isEmpty()) {
+      List<DependRequest> reqs = new ArrayList<>();
+      for (VarNode vn : work) {
+	 DependRequest req = addDependentNodes(vn);
+	 if (req != null) reqs.add(req);
+       }
+      work = new ArrayList<>();
+      for (DependRequest req : reqs) {
+	 work.addAll(req.finish());
+       }
+    }
+
    if (history_panel == null) {
       BoardLog.logD("BICEX","Create VarHistory panel");
       history_panel = new VarHistoryPanel();
@@ -173,18 +191,14 @@ private final class Updater implements Runnable {
 /*										*/
 /********************************************************************************/
 
-private void addDependentNodes(VarNode vn)
+private DependRequest addDependentNodes(VarNode vn)
 {
    long now = vn.getTime();
-   long prev = -1;
-   for (Integer t : vn.getValue().getTimeChanges()) {
-      if (t <= now) prev = t;
-      else if (t > now) break;
-    }
+   long prev = vn.getValue().getFloorTimeChange(now);
 
    if (prev <= 0) {
       if (vn.isReturn()) prev = now-1;
-      else return;
+      else return null;
     }
 
    BicexEvaluationContext pctx = for_viewer.getContextForTime(prev+1);
@@ -195,7 +209,7 @@ private void addDependentNodes(VarNode vn)
     }
 
    BoardLog.logD("BICEX","DEPENDENT CONTEXT " + pctx);
-   if (pctx == null) return;
+   if (pctx == null) return null;
 
    String vnm = vn.getName();
    int idx = vnm.lastIndexOf("?");
@@ -203,9 +217,9 @@ private void addDependentNodes(VarNode vn)
 
    int line = getLine(pctx,prev);
    BoardLog.logD("BICEX","DEPENDENT LINE " + line);
-   if (line <= 0) return;
+   if (line <= 0) return null;
 
-   Element dep = null;
+   CompletableFuture<Element> dep = null;
    if (line == getLine(pctx,1)) {
       BicexEvaluationContext par = pctx.getParent();
       int nline = getLine(par,prev);
@@ -218,14 +232,52 @@ private void addDependentNodes(VarNode vn)
       dep = getVariableDependencies(vnm,pctx,line,prev);
     }
 
-   List<VarNode> vns = findDependents(vn,dep,pctx,line,prev-1);
-   if (vns == null) return;
+   return new DependRequest(vn,dep,pctx,line,prev-1);
+}
+
 
-   for (VarNode nvn : vns) {
-      vn.addDependent(nvn);
-      addDependentNodes(nvn);
+
+private class DependRequest {
+
+   private VarNode for_node;
+   private CompletableFuture<Element> depend_reply;
+   private BicexEvaluationContext for_context;
+   private int at_line;
+   private long at_time;
+
+   DependRequest(VarNode vn,CompletableFuture<Element> rply,BicexEvaluationContext ctx,
+	 int line,long when) {
+      for_node = vn;
+      depend_reply = rply;
+      for_context = ctx;
+      at_line = line;
+      at_time = when;
     }
-}
+
+   List<VarNode> finish() {
+      Element rslt = null;
+      try {
+	 rslt = depend_reply.get();
+       }
+      catch (InterruptedException e) {
+	 depend_reply.cancel(true);
+       }
+      catch (ExecutionException e) {
+	 BoardLog.logE("BICEX","Problem getting variable history",e.getCause());
+       }
+      if (rslt == null || IvyXml.getChild(rslt,"ERROR") != null) return Collections.emptyList();
+
+      Element dep = IvyXml.getChild(rslt,"DEPEND");
+      List<VarNode> vns = findDependents(for_node,dep,for_context,at_line,at_time);
+      if (vns == null) return Collections.emptyList();
+
+      for (VarNode nvn : vns) {
+	 for_node.addDependent(nvn);
+       }
+      return vns;
+    }
+
+}	// end of inner class DependRequest
 
 
 
@@ -337,26 +389,22 @@ List<VarNode> findDependents(VarNode vnorig,Element dep,BicexEvaluationContext c
 
 
 
-private Element getVariableDependencies(String name,BicexEvaluationContext ctx,int lno,long when)
+private CompletableFuture<Element> getVariableDependencies(String name,BicexEvaluationContext ctx,
+      int lno,long when)
 {
-   if (when == 0) return null;
+   if (when == 0) return CompletableFuture.completedFuture(null);
 
    CommandArgs args = new CommandArgs("FILE",ctx.getFileName(),
 	 "LINE",lno,
 	 "TIME",when,
 	 "CONTEXT",ctx.getId(),
 	 "VARIABLE",name);
-   Element rslt = for_viewer.getExecution().sendSeedeMessage("VARHISTORY",args,null);
-   if (rslt == null) return null;
-   if (IvyXml.getChild(rslt,"ERROR") != null) return null;
-
-   Element dep = IvyXml.getChild(rslt,"DEPEND");
 
-   return dep;
+   return for_viewer.getExecution().sendSeedeMessageAsync("VARHISTORY",args,null);
 }
 
 
-private Element getCallDependencies(String name,BicexEvaluationContext ctx,BicexEvaluationContext cctx,
+private CompletableFuture<Element> getCallDependencies(String name,BicexEvaluationContext ctx,BicexEvaluationContext cctx,
       int lno,int clno,long when)
 {
    // need the file and line for the called context
@@ -371,13 +419,7 @@ private Element getCallDependencies(String name,BicexEvaluationContext ctx,Bicex
 	 "CALLEDLINE",clno,
 	 "VARIABLE",name);
 
-   Element rslt = for_viewer.getExecution().sendSeedeMessage("VARHISTORY",args,null);
-   if (rslt == null) return null;
-   if (IvyXml.getChild(rslt,"ERROR") != null) return null;
-
-   Element dep = IvyXml.getChild(rslt,"DEPEND");
-
-   return dep;
+   return for_viewer.getExecution().sendSeedeMessageAsync("VARHISTORY",args,null);
 }
 
 
@@ -499,11 +541,11 @@ private class VarHistoryPanel extends BicexPanel {
 }	// end of inner class VarHistoryPanel
 
 
-private class VarHistoryGraph extends JPanel {
+private class VarHistoryGraph extends JPanel implements BicexLayoutService.LayoutFactory {
 
    private PetalEditor	petal_editor;
    private transient PetalModelDefault petal_model;
-   private transient PetalLayoutMethod layout_method;
+   private transient BicexLayoutService layout_service;
 
    private static final long serialVersionUID = 1;
 
@@ -513,15 +555,19 @@ private class VarHistoryGraph extends JPanel {
       PetalUndoSupport.getSupport().blockCommands();
       petal_model = new PetalModelDefault();
       petal_editor = new PetalEditor(petal_model);
-      PetalLevelLayout levels = new PetalLevelLayout(petal_editor);
+      add(petal_editor,BorderLayout.CENTER);
+      petal_editor.addZoomWheeler();
+      layout_service = new BicexLayoutService(this,petal_editor,petal_model,this);
+    }
+
+   @Override public PetalLayoutMethod createLayout(PetalEditor ed) {
+      PetalLevelLayout levels = new PetalLevelLayout(ed);
       levels.setSplineArcs(false);
       levels.setLevelX(true);
       levels.setOptimizeLevels(true);
       levels.setWhiteFraction(0);
       levels.setWhiteSpace(50);
-      layout_method = levels;
-      add(petal_editor,BorderLayout.CENTER);
-      petal_editor.addZoomWheeler();
+      return levels;
     }
 
    @Override public void paintComponent(Graphics g) {
@@ -529,37 +575,9 @@ private class VarHistoryGraph extends JPanel {
     }
 
    void update() {
-      Map<VarNode,GraphNode> nodes = new HashMap<>();
-      petal_model.clear();
-
-      addNodes(start_node,nodes);
-
-      petal_model.fireModelUpdated();
-      petal_editor.commandLayout(layout_method);
-      Dimension dim = petal_editor.getPreferredSize();
-      setSize(dim);
-      setPreferredSize(dim);
-      setMinimumSize(dim);
-      repaint();
-    }
-
-   private GraphNode addNodes(VarNode vn,Map<VarNode,GraphNode> nodes) {
-      GraphNode gn = nodes.get(vn);
-      if (gn != null) return gn;
+      if (start_node == null) return;
 
-      gn = new GraphNode(vn);
-      nodes.put(vn,gn);
-      petal_model.addNode(gn);
-
-      if (vn.getDependents() != null) {
-	 for (VarNode vn1 : vn.getDependents()) {
-	    GraphNode gn1 = addNodes(vn1,nodes);
-	    GraphArc ga = new GraphArc(gn,gn1);
-	    petal_model.addArc(ga);
-	  }
-       }
-
-      return gn;
+      layout_service.requestLayout(new GraphBuilder(start_node));
     }
 
    GraphNode findNode(Point pt) {
@@ -568,6 +586,44 @@ private class VarHistoryGraph extends JPanel {
       return null;
     }
 
+   private class GraphBuilder implements BicexLayoutService.LayoutBuilder {
+
+      private VarNode root_node;
+      private Map<VarNode,GraphNode> graph_nodes;
+
+      GraphBuilder(VarNode root) {
+	 root_node = root;
+	 graph_nodes = new HashMap<>();
+       }
+
+      @Override public void buildGraph(BicexLayoutService.LayoutGraph g) {
+	 addNodes(root_node,g);
+       }
+
+      @Override public void graphInstalled(BicexLayoutService.LayoutGraph g) { }
+
+      private GraphNode addNodes(VarNode vn,BicexLayoutService.LayoutGraph g) {
+	 GraphNode gn = graph_nodes.get(vn);
+	 if (gn != null) return gn;
+
+	 gn = new GraphNode(vn);
+	 graph_nodes.put(vn,gn);
+	 g.addNode(gn,Arrays.asList(vn.getContext(),vn.getName(),vn.getTime()));
+
+	 if (vn.getDependents() != null) {
+	    for (VarNode vn1 : vn.getDependents()) {
+	       if (g.isCancelled()) break;
+	       GraphNode gn1 = addNodes(vn1,g);
+	       GraphArc ga = new GraphArc(gn,gn1);
+	       g.addArc(ga);
+	     }
+	  }
+
+	 return gn;
+       }
+
+    }	// end of inner class GraphBuilder
+
 }	// end of inner class VarHistoryGraph
 
 
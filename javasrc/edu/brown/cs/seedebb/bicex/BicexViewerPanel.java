@@ -78,6 +78,7 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 
 class BicexViewerPanel extends BicexPanel implements BicexConstants
@@ -191,8 +192,7 @@ private void setToString(boolean fg)
    show_tostring = fg;
    CommandArgs args = new CommandArgs("VALUE",show_tostring);
    BicexExecution exec = getExecution();
-   Element rslt = exec.sendSeedeMessage("TOSTRING",args,null);
-   BoardLog.logD("BICEX","RESULT OF TOSTRING IS " + IvyXml.convertXmlToString(rslt));
+   exec.sendSeedeMessageAsync("TOSTRING",args,null).whenComplete(new ReplyLogger("TOSTRING"));
 
    if (show_tostring) split_pane.setRightComponent(tostring_area);
    else split_pane.setRightComponent(null);
@@ -612,7 +612,8 @@ private class SetInitialValueAction extends AbstractAction {
       CommandArgs args = new CommandArgs("THREAD",threadid);
       IvyXmlWriter xw = new IvyXmlWriter();
       xw.cdataElement("EXPR",expr);
-      getExecution().sendSeedeMessage("SETVALUE",args,xw.toString());
+      getExecution().sendSeedeMessageAsync("SETVALUE",args,xw.toString()).whenComplete(
+	    new ReplyLogger("SETVALUE"));
       xw.close();
    
     }
@@ -637,9 +638,8 @@ private class CreateGraphicsAction extends AbstractAction {
       String name = getNodeName(variable_slot);
       BicexExecution exec = getExecution();
       CommandArgs args = new CommandArgs("VARIABLE",name);
-      Element rslt = exec.sendSeedeMessage("SWING",args,null);
+      exec.sendSeedeMessageAsync("SWING",args,null).whenComplete(new ReplyLogger("SWING SETUP"));
       BoardMetrics.noteCommand("BICEX","CreateGraphics");
-      BoardLog.logD("BICEX","RESULT OF SWING SETUP IS " + IvyXml.convertXmlToString(rslt));
     }
 
 }	// end of inner class CreateGraphicsAction
@@ -727,9 +727,8 @@ private class ExpandVariableAction extends AbstractAction {
       CommandArgs args = new CommandArgs("VARIABLE",name,"TIME",getExecution().getCurrentTime(),
 	       "CONTEXT",getExecution().getCurrentContext().getId(),
 	       "FILE",getExecution().getCurrentContext().getFileName());
-      Element rslt = exec.sendSeedeMessage("EXPAND",args,null);
+      exec.sendSeedeMessageAsync("EXPAND",args,null).whenComplete(new ReplyLogger("EXPAND"));
       BoardMetrics.noteCommand("BICEX","ExpandVariable");
-      BoardLog.logD("BICEX","RESULT OF EXPAND IS " + IvyXml.convertXmlToString(rslt));
     }
 
 }	// end of inner class ExpandVariableAction
@@ -753,6 +752,34 @@ private class ShowToStringAction extends AbstractAction {
 
 
 
+/********************************************************************************/
+/*										*/
+/*	Handle replies to asynchronous commands 				*/
+/*										*/
+/********************************************************************************/
+
+private static class ReplyLogger implements BiConsumer<Element,Throwable> {
+
+   private String command_name;
+
+   ReplyLogger(String cmd) {
+      command_name = cmd;
+    }
+
+   @Override public void accept(Element rslt,Throwable t) {
+      if (t != null) {
+	 BoardLog.logE("BICEX","Problem with " + command_name + " request",t);
+       }
+      else {
+	 BoardLog.logD("BICEX","RESULT OF " + command_name + " IS " +
+	       IvyXml.convertXmlToString(rslt));
+       }
+    }
+
+}	// end of inner class ReplyLogger
+
+
+
 }
 
 	// end of class BicexViewerBubble